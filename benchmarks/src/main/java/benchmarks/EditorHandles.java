@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.List;
+
+// Tool classes are in the default package, which can't be imported by JMH benchmarks,
+// so their methods are reached through method handles
+final class EditorHandles {
+
+	static final Class<?> EDITOR_CLASS = findClass("EventCarListEditor");
+
+	static final MethodHandle UNPACK_DAT_FILE = findMethod("unpackDatFile", String.class, String.class);
+	static final MethodHandle WRITE_DAT_FILE_OUTPUT = findMethod("writeDatFileOutput", String.class, String.class);
+	static final MethodHandle READ_DAT_BUFFER = findMethod("readDatBuffer", java.nio.ByteBuffer.class);
+	static final MethodHandle SET_PARALLEL = findMethod("setParallel", boolean.class);
+	static final MethodHandle WRITE_JSON_OUTPUT = findMethod("writeJsonOutput", List.class, String.class);
+	static final MethodHandle HEX_TO_STRING = findMethod("hexToString", byte[].class);
+	static final MethodHandle INT_TO_HEX_STRING = findMethod("intToHexString", int.class, int.class);
+	static final MethodHandle DECODE_HEX_INT = findMethod("decodeHexInt", String.class);
+	static final MethodHandle DECODE_HEX_STR = findMethod("decodeHexStr", String.class, byte[].class);
+
+	private EditorHandles() {
+	}
+
+	static Object newEditor() {
+		try {
+			return EDITOR_CLASS.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Class<?> findClass(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MethodHandle findMethod(String name, Class<?>... paramTypes) {
+		try {
+			Method method = EDITOR_CLASS.getDeclaredMethod(name, paramTypes);
+			method.setAccessible(true);
+			return MethodHandles.lookup().unreflect(method);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// End-to-end unpack & repack, plus .dat decoding (sequential and fork/join) and JSON writing on their own.
+// Run with "-prof gc" to see allocation rate next to the throughput
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventCarListBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int eventsCount;
+
+	private Object editor;
+	private Object parallelEditor;
+	private Path workFolder;
+	private String jsonPath;
+	private String datPath;
+	private ByteBuffer datBuffer;
+	private List<?> eventsList;
+
+	@Setup
+	public void setup() throws Throwable {
+		SyntheticData.muteSystemOut();
+		editor = EditorHandles.newEditor();
+		parallelEditor = EditorHandles.newEditor();
+		EditorHandles.SET_PARALLEL.invoke(parallelEditor, true);
+		workFolder = Files.createTempDirectory("eventcars-bench");
+		jsonPath = workFolder.resolve("events").toString();
+		datPath = workFolder.resolve("events.dat").toString();
+		SyntheticData.writeEventsJson(workFolder.resolve("events.json"), eventsCount, 2012);
+		EditorHandles.WRITE_DAT_FILE_OUTPUT.invoke(editor, jsonPath, datPath);
+		datBuffer = ByteBuffer.wrap(Files.readAllBytes(workFolder.resolve("events.dat")));
+		eventsList = (List<?>) EditorHandles.READ_DAT_BUFFER.invoke(editor, datBuffer.duplicate());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		SyntheticData.restoreSystemOut();
+		try (Stream<Path> files = Files.walk(workFolder)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public void unpack() throws Throwable {
+		EditorHandles.UNPACK_DAT_FILE.invoke(editor, datPath, workFolder.resolve("unpacked").toString());
+	}
+
+	@Benchmark
+	public void repack() throws Throwable {
+		EditorHandles.WRITE_DAT_FILE_OUTPUT.invoke(editor, jsonPath, workFolder.resolve("repacked.dat").toString());
+	}
+
+	@Benchmark
+	public Object decodeDat() throws Throwable {
+		return EditorHandles.READ_DAT_BUFFER.invoke(editor, datBuffer.duplicate());
+	}
+
+	@Benchmark
+	public Object decodeDatParallel() throws Throwable {
+		return EditorHandles.READ_DAT_BUFFER.invoke(parallelEditor, datBuffer.duplicate());
+	}
+
+	@Benchmark
+	public void writeJson() throws Throwable {
+		EditorHandles.WRITE_JSON_OUTPUT.invoke(editor, eventsList, workFolder.resolve("serialized").toString());
+	}
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Per-field helpers, called for every ID of every car
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldCodecBenchmark {
+
+	private byte[] ffBytes;
+	private byte[] decodedBytes;
+	private String ffHex;
+	private String idHex;
+	private int eventId;
+
+	@Setup
+	public void setup() {
+		ffBytes = new byte[12];
+		decodedBytes = new byte[12];
+		ffHex = "FFFFFFFFFFFFFFFFFFFFFFFF";
+		idHex = "95031600";
+		eventId = 0x00160395;
+	}
+
+	@Benchmark
+	public Object hexToString() throws Throwable {
+		return EditorHandles.HEX_TO_STRING.invoke(ffBytes);
+	}
+
+	@Benchmark
+	public Object intToHexString() throws Throwable {
+		return EditorHandles.INT_TO_HEX_STRING.invoke(eventId, 4);
+	}
+
+	@Benchmark
+	public int decodeHexInt() throws Throwable {
+		return (int) EditorHandles.DECODE_HEX_INT.invoke(idHex);
+	}
+
+	@Benchmark
+	public byte[] decodeHexStr() throws Throwable {
+		EditorHandles.DECODE_HEX_STR.invoke(ffHex, decodedBytes);
+		return decodedBytes;
+	}
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import com.google.gson.stream.JsonWriter;
+
+// Random event lists in the unpacked JSON form, repacked by the tool itself to get .dat inputs
+final class SyntheticData {
+
+	private static final String[] PART_UNLOCK_IDS = {"0000", "0100", "0200", "0300", "0400", "0500", "0D00"};
+	private static final PrintStream SYSTEM_OUT = System.out;
+
+	private SyntheticData() {
+	}
+
+	static void writeEventsJson(Path jsonFile, int eventsCount, long seed) throws IOException {
+		Random random = new Random(seed);
+		try (JsonWriter jsonWriter = new JsonWriter(Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8))) {
+			jsonWriter.setIndent("  ");
+			jsonWriter.beginArray();
+			for (int i = 0; i < eventsCount; i++) {
+				int partUnlocksCount = random.nextInt(7);
+				jsonWriter.beginObject();
+				jsonWriter.name("EventId").value(randomHex(random, 4));
+				jsonWriter.name("Cars").beginArray();
+				int carsCount = random.nextInt(13);
+				for (int j = 0; j < carsCount; j++) {
+					jsonWriter.beginObject();
+					jsonWriter.name("CarId").value(randomHex(random, 4));
+					jsonWriter.name("UnknownArray1").value(randomHex(random, 4));
+					jsonWriter.name("PartUnlockTypeIndex").value(partUnlocksCount > 0 ? random.nextInt(partUnlocksCount) : 0);
+					jsonWriter.name("TheFFArray").value("FFFFFFFFFFFFFFFFFFFFFFFF");
+					jsonWriter.name("PartsAmountId").value(randomHex(random, 4));
+					jsonWriter.name("DifficultyId").value(randomHex(random, 4));
+					jsonWriter.endObject();
+				}
+				jsonWriter.endArray();
+				jsonWriter.name("PartUnlockIds").beginArray();
+				for (int j = 0; j < partUnlocksCount; j++) {
+					jsonWriter.value(PART_UNLOCK_IDS[random.nextInt(PART_UNLOCK_IDS.length)]);
+				}
+				jsonWriter.endArray();
+				jsonWriter.endObject();
+			}
+			jsonWriter.endArray();
+		}
+	}
+
+	private static String randomHex(Random random, int size) {
+		StringBuilder hex = new StringBuilder(size * 2);
+		for (int i = 0; i < size; i++) {
+			hex.append(String.format("%02X", random.nextInt(256)));
+		}
+		return hex.toString();
+	}
+
+	// Tool prints status lines on each read & write (counts, "has been repacked"), console time would be measured too
+	static void muteSystemOut() {
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	static void restoreSystemOut() {
+		System.setOut(SYSTEM_OUT);
+	}
+}
@@ -0,0 +1,497 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+// Declarative layout of the record in .dat resources of GAMEPLAY.BNDL: fixed-size part with constant bytes,
+// int and byte array fields, then the array of child records and the array of 2-byte values.
+// Parent keeps the offset and count of its child records, and child can point into the values of its parent.
+// Each record has an entry in the bottom index, which is used by the game to relocate the offsets.
+// Fields are bound to getters & setters of the entry object (method references), so there is no reflection
+public class DatRecordSchema<T> {
+
+	private static final int valueSize = 2;
+	private static final int relocationFlag = 0x80000000; // Offsets in bottom index are stored as XX XX XX 80
+
+	private final String recordName;
+	private final Supplier<T> recordFactory;
+	private final int recordSize;
+	private final byte[] relocationHeaderArray;
+	private final List<FieldObject<T>> fieldsList = new ArrayList<>();
+	private int childrenOffsetPos = -1;
+	private int childrenCountPos = -1;
+	private ChildRecordsObject<T, ?> childRecords;
+	private Function<T, short[]> valuesGetter;
+	private BiConsumer<T, short[]> valuesSetter;
+	private byte[] valuesEndArray;
+	private byte[] headerArray; // Constant on zero position
+
+	// Header of the bottom index entry of this record, next goes the record offset and 4 zero bytes
+	public DatRecordSchema(String recordName, Supplier<T> recordFactory, int recordSize, byte[] relocationHeaderArray) {
+		this.recordName = recordName;
+		this.recordFactory = recordFactory;
+		this.recordSize = recordSize;
+		this.relocationHeaderArray = relocationHeaderArray;
+	}
+
+	//
+	// Schema
+	//
+
+	// Same bytes in each record, not kept in the object. Constant at zero position is the record header
+	public DatRecordSchema<T> constant(int fieldPos, byte[] constantArray) {
+		fieldsList.add(new FieldObject<>(FieldType.CONSTANT, fieldPos, constantArray.length, "Header", constantArray));
+		return this;
+	}
+
+	// Little-endian int
+	public DatRecordSchema<T> intField(int fieldPos, String name, ToIntFunction<T> getter, ObjIntConsumer<T> setter) {
+		fieldsList.add(new FieldObject<T>(FieldType.INT, fieldPos, Integer.BYTES, name, null)
+				.setIntAccessors(getter, setter));
+		return this;
+	}
+
+	// Bytes are shared with the known array, if they are the same
+	public DatRecordSchema<T> bytesField(int fieldPos, String name, Function<T, byte[]> getter,
+			BiConsumer<T, byte[]> setter, byte[] knownArray) {
+		fieldsList.add(new FieldObject<T>(FieldType.BYTES, fieldPos, knownArray.length, name, knownArray)
+				.setBytesAccessors(getter, setter));
+		return this;
+	}
+
+	// Offset of the value in the parent values array, kept in the object as the index of value. Zero if there are no values
+	public DatRecordSchema<T> valueIndexField(int fieldPos, String name, String property, ToIntFunction<T> getter,
+			ObjIntConsumer<T> setter) {
+		fieldsList.add(new FieldObject<T>(FieldType.VALUE_INDEX, fieldPos, Integer.BYTES, name, null)
+				.setProperty(property).setIntAccessors(getter, setter));
+		return this;
+	}
+
+	// Offset of the first child record, they go right after the fixed part
+	public DatRecordSchema<T> childrenOffsetField(int fieldPos, String name) {
+		fieldsList.add(new FieldObject<>(FieldType.CHILDREN_OFFSET, fieldPos, Integer.BYTES, name, null));
+		childrenOffsetPos = fieldPos;
+		return this;
+	}
+
+	// Amount of child records, it's read as a single byte
+	public DatRecordSchema<T> childrenCountField(int fieldPos, String name) {
+		fieldsList.add(new FieldObject<>(FieldType.CHILDREN_COUNT, fieldPos, Integer.BYTES, name, null));
+		childrenCountPos = fieldPos;
+		return this;
+	}
+
+	// List of child records, offset and count fields must be declared too
+	public <C> DatRecordSchema<T> childRecords(Function<T, List<C>> getter, BiConsumer<T, List<C>> setter,
+			DatRecordSchema<C> childSchema) {
+		this.childRecords = new ChildRecordsObject<>(getter, setter, childSchema);
+		return this;
+	}
+
+	// 2-byte values after the child records, they go until the record end. If the end is not known,
+	// values go until the header of the next record or the end array (header of the bottom index)
+	public DatRecordSchema<T> valueArray(Function<T, short[]> getter, BiConsumer<T, short[]> setter,
+			byte[] valuesEndArray) {
+		this.valuesGetter = getter;
+		this.valuesSetter = setter;
+		this.valuesEndArray = valuesEndArray;
+		return this;
+	}
+
+	// Checks the fields, schema can't be changed after that
+	public DatRecordSchema<T> build() {
+		checkFields();
+		if (!fieldsList.isEmpty() && fieldsList.get(0).getFieldType() == FieldType.CONSTANT) {
+			headerArray = fieldsList.get(0).getKnownArray();
+		}
+		return this;
+	}
+
+	// Fields go in the file order and cover the whole fixed part without gaps, so the re-used buffer never keeps old bytes
+	private void checkFields() {
+		int nextPos = 0;
+		for (FieldObject<T> fieldObj : fieldsList) {
+			if (fieldObj.getFieldPos() != nextPos) {
+				throw new IllegalStateException("Schema of " + recordName + " has a gap or overlap on "
+						+ nextPos + ", field " + fieldObj.getName());
+			}
+			nextPos += fieldObj.getFieldSize();
+		}
+		if (nextPos != recordSize) {
+			throw new IllegalStateException("Schema of " + recordName + " has " + nextPos
+					+ " bytes of fields, but record size is " + recordSize);
+		}
+		if (childRecords == null) return;
+		if (childrenOffsetPos == -1 || childrenCountPos == -1) {
+			throw new IllegalStateException("Child records of " + recordName + " need the offset and count fields");
+		}
+		DatRecordSchema<?> childSchema = childRecords.getChildSchema();
+		if (childSchema.childRecords != null || childSchema.valuesGetter != null) {
+			throw new IllegalStateException("Child records with their own arrays are not supported");
+		}
+	}
+
+	//
+	// Records
+	//
+
+	// Amount of child records of the record on recordPos, its fixed part must be in the buffer
+	public int readChildrenCount(ByteBuffer buffer, int recordPos) {
+		return childrenCountPos != -1 ? buffer.get(recordPos + childrenCountPos) & 0xFF : 0;
+	}
+
+	// Record with its child records and values. Values go until recordEnd, or if it's -1, until the next header
+	public T readRecord(ByteBuffer buffer, int recordPos, int recordEnd) {
+		int childrenCount = readChildrenCount(buffer, recordPos);
+		int valuesPos = recordPos + getRecordSize(childrenCount, 0);
+		T obj = readFields(buffer, recordPos, valuesPos);
+		if (childRecords != null) {
+			childRecords.read(buffer, recordPos + recordSize, childrenCount, valuesPos, obj);
+		}
+		if (valuesGetter != null) {
+			if (recordEnd == -1) {
+				recordEnd = findValuesEnd(buffer, valuesPos);
+			}
+			short[] values = new short[(recordEnd - valuesPos) / valueSize];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = buffer.getShort(valuesPos + i * valueSize);
+			}
+			valuesSetter.accept(obj, values);
+		}
+		return obj;
+	}
+
+	// Fixed part only, constants and children fields are made from the layout
+	private T readFields(ByteBuffer buffer, int recordPos, int valuesPos) {
+		T obj = recordFactory.get();
+		for (FieldObject<T> fieldObj : fieldsList) {
+			int pos = recordPos + fieldObj.getFieldPos();
+			switch (fieldObj.getFieldType()) {
+			case INT:
+				fieldObj.getIntSetter().accept(obj, buffer.getInt(pos));
+				break;
+			case BYTES:
+				fieldObj.getBytesSetter().accept(obj, readBytesField(buffer, pos, fieldObj.getKnownArray()));
+				break;
+			case VALUE_INDEX:
+				fieldObj.getIntSetter().accept(obj, readValueIndexField(buffer, pos, valuesPos));
+				break;
+			default:
+				break;
+			}
+		}
+		return obj;
+	}
+
+	private int findValuesEnd(ByteBuffer buffer, int curPos) {
+		while (curPos + valueSize <= buffer.limit()
+				&& !isBytesEqual(buffer, curPos, valuesEndArray)
+				&& !isBytesEqual(buffer, curPos, headerArray)) {
+			curPos += valueSize;
+		}
+		return curPos;
+	}
+
+	// Record is written on the buffer position, filePos is its offset in the file
+	public void writeRecord(ByteBuffer buffer, int filePos, T obj) {
+		short[] values = valuesGetter != null ? valuesGetter.apply(obj) : null;
+		int childrenCount = childRecords != null ? childRecords.getChildrenCount(obj) : 0;
+		int valuesCount = values != null ? values.length : 0;
+		int bufferPos = buffer.position();
+		int valuesPos = filePos + getRecordSize(childrenCount, 0);
+		writeFields(buffer, bufferPos, filePos, valuesPos, valuesCount, childrenCount, obj);
+		int curPos = recordSize;
+		if (childRecords != null) {
+			curPos += childRecords.write(buffer, bufferPos + curPos, filePos + curPos, valuesPos, valuesCount, obj);
+		}
+		for (int i = 0; i < valuesCount; i++) {
+			buffer.putShort(bufferPos + curPos, values[i]);
+			curPos += valueSize;
+		}
+		buffer.position(bufferPos + curPos);
+	}
+
+	private void writeFields(ByteBuffer buffer, int bufferPos, int filePos, int valuesPos, int valuesCount,
+			int childrenCount, T obj) {
+		for (FieldObject<T> fieldObj : fieldsList) {
+			int pos = bufferPos + fieldObj.getFieldPos();
+			switch (fieldObj.getFieldType()) {
+			case CONSTANT:
+				writeConstantField(buffer, pos, fieldObj.getKnownArray());
+				break;
+			case INT:
+				buffer.putInt(pos, fieldObj.getIntGetter().applyAsInt(obj));
+				break;
+			case BYTES:
+				writeBytesField(buffer, pos, fieldObj.getBytesGetter().apply(obj), fieldObj.getFieldSize());
+				break;
+			case VALUE_INDEX:
+				writeValueIndexField(buffer, pos, fieldObj.getIntGetter().applyAsInt(obj), valuesPos, valuesCount,
+						fieldObj.getProperty());
+				break;
+			case CHILDREN_OFFSET:
+				buffer.putInt(pos, filePos + recordSize);
+				break;
+			case CHILDREN_COUNT:
+				buffer.putInt(pos, childrenCount);
+				break;
+			}
+		}
+	}
+
+	//
+	// Layout
+	//
+
+	public int getRecordSize() {
+		return recordSize;
+	}
+
+	// Fixed part, child records and values
+	public int getRecordSize(int childrenCount, int valuesCount) {
+		int childSize = childRecords != null ? childRecords.getChildSchema().recordSize : 0;
+		return recordSize + childrenCount * childSize + valuesCount * valueSize;
+	}
+
+	// Bottom index entries of the record and its child records
+	public void writeRelocations(ByteBuffer byteBuffer, int filePos, int childrenCount) {
+		writeRelocation(byteBuffer, relocationHeaderArray, filePos);
+		if (childRecords == null) return;
+		DatRecordSchema<?> childSchema = childRecords.getChildSchema();
+		int childPos = filePos + recordSize;
+		for (int i = 0; i < childrenCount; i++) {
+			writeRelocation(byteBuffer, childSchema.relocationHeaderArray, childPos);
+			childPos += childSchema.recordSize;
+		}
+	}
+
+	private static void writeRelocation(ByteBuffer byteBuffer, byte[] headerArray, int filePos) {
+		byteBuffer.put(headerArray);
+		byteBuffer.putInt((filePos & 0x00FFFFFF) | relocationFlag);
+		byteBuffer.putInt(0);
+	}
+
+	// Offsets are counted from the file start, so the moved record needs them to be shifted.
+	// Value offsets stay with zero, if the record doesn't have any values
+	public void shiftOffsets(ByteBuffer recordBuffer, int childrenCount, int shift) {
+		for (FieldObject<T> fieldObj : fieldsList) {
+			if (fieldObj.getFieldType() == FieldType.CHILDREN_OFFSET) {
+				shiftOffset(recordBuffer, fieldObj.getFieldPos(), shift);
+			}
+		}
+		if (childRecords == null) return;
+		DatRecordSchema<?> childSchema = childRecords.getChildSchema();
+		for (FieldObject<?> fieldObj : childSchema.fieldsList) {
+			if (fieldObj.getFieldType() != FieldType.VALUE_INDEX) continue;
+			for (int i = 0; i < childrenCount; i++) {
+				shiftOffset(recordBuffer, recordSize + i * childSchema.recordSize + fieldObj.getFieldPos(), shift);
+			}
+		}
+	}
+
+	private static void shiftOffset(ByteBuffer recordBuffer, int offsetPos, int shift) {
+		int offset = recordBuffer.getInt(offsetPos);
+		if (offset != 0) {
+			recordBuffer.putInt(offsetPos, offset + shift);
+		}
+	}
+
+	// Name of the field on the position of the fixed part, for the error messages
+	public String getFieldName(int recordPos) {
+		for (FieldObject<T> fieldObj : fieldsList) {
+			if (recordPos < fieldObj.getFieldPos() + fieldObj.getFieldSize()) {
+				return fieldObj.getName();
+			}
+		}
+		return "end of record";
+	}
+
+	//
+	// Helpers
+	//
+
+	// Known constant blocks are shared instead of being copied for every entry
+	static byte[] readBytesField(ByteBuffer buffer, int pos, byte[] knownArray) {
+		if (isBytesEqual(buffer, pos, knownArray)) return knownArray;
+		byte[] fieldArray = new byte[knownArray.length];
+		for (int i = 0; i < fieldArray.length; i++) {
+			fieldArray[i] = buffer.get(pos + i);
+		}
+		return fieldArray;
+	}
+
+	// Sometimes record can have zero bytes here, it's left as it is
+	private static int readValueIndexField(ByteBuffer buffer, int pos, int valuesPos) {
+		int valueOffset = buffer.getInt(pos);
+		return valueOffset == 0 ? 0 : (valueOffset - valuesPos) / valueSize;
+	}
+
+	private static void writeConstantField(ByteBuffer buffer, int pos, byte[] constantArray) {
+		for (int i = 0; i < constantArray.length; i++) {
+			buffer.put(pos + i, constantArray[i]);
+		}
+	}
+
+	private static void writeBytesField(ByteBuffer buffer, int pos, byte[] fieldArray, int fieldSize) {
+		if (fieldArray.length != fieldSize) {
+			throw new IllegalArgumentException("Field of " + fieldSize + " bytes got " + fieldArray.length + " bytes");
+		}
+		writeConstantField(buffer, pos, fieldArray);
+	}
+
+	// If parent doesn't have any values, it's zero
+	private static void writeValueIndexField(ByteBuffer buffer, int pos, int valueIndex, int valuesPos,
+			int valuesCount, String property) {
+		if (valuesCount == 0) {
+			buffer.putInt(pos, 0);
+			return;
+		}
+		if (valueIndex < 0 || valueIndex >= valuesCount) {
+			throw new IndexOutOfBoundsException(property + " " + valueIndex + " is out of " + valuesCount + " values");
+		}
+		buffer.putInt(pos, valuesPos + valueIndex * valueSize);
+	}
+
+	static boolean isBytesEqual(ByteBuffer buffer, int pos, byte[] pattern) {
+		if (pattern == null || pos + pattern.length > buffer.limit()) return false;
+		for (int i = 0; i < pattern.length; i++) {
+			if (buffer.get(pos + i) != pattern[i]) return false;
+		}
+		return true;
+	}
+
+	//
+	// Objects
+	//
+
+	enum FieldType {
+		CONSTANT, INT, BYTES, VALUE_INDEX, CHILDREN_OFFSET, CHILDREN_COUNT
+	}
+
+	// Accessors are set only for the fields which are kept in the object
+	static class FieldObject<T> {
+		private final FieldType fieldType;
+		private final int fieldPos;
+		private final int fieldSize;
+		private final String name; // As it's called in the .dat docs
+		private final byte[] knownArray; // Constant bytes, or the known value of bytes field
+		private String property; // Name of the object field, for the error messages
+		private ToIntFunction<T> intGetter;
+		private ObjIntConsumer<T> intSetter;
+		private Function<T, byte[]> bytesGetter;
+		private BiConsumer<T, byte[]> bytesSetter;
+
+		FieldObject(FieldType fieldType, int fieldPos, int fieldSize, String name, byte[] knownArray) {
+			this.fieldType = fieldType;
+			this.fieldPos = fieldPos;
+			this.fieldSize = fieldSize;
+			this.name = name;
+			this.property = name;
+			this.knownArray = knownArray;
+		}
+
+		public FieldType getFieldType() {
+			return fieldType;
+		}
+
+		public int getFieldPos() {
+			return fieldPos;
+		}
+
+		public int getFieldSize() {
+			return fieldSize;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public byte[] getKnownArray() {
+			return knownArray;
+		}
+
+		public String getProperty() {
+			return property;
+		}
+
+		public FieldObject<T> setProperty(String property) {
+			this.property = property;
+			return this;
+		}
+
+		public ToIntFunction<T> getIntGetter() {
+			return intGetter;
+		}
+
+		public ObjIntConsumer<T> getIntSetter() {
+			return intSetter;
+		}
+
+		public FieldObject<T> setIntAccessors(ToIntFunction<T> intGetter, ObjIntConsumer<T> intSetter) {
+			this.intGetter = intGetter;
+			this.intSetter = intSetter;
+			return this;
+		}
+
+		public Function<T, byte[]> getBytesGetter() {
+			return bytesGetter;
+		}
+
+		public BiConsumer<T, byte[]> getBytesSetter() {
+			return bytesSetter;
+		}
+
+		public FieldObject<T> setBytesAccessors(Function<T, byte[]> bytesGetter, BiConsumer<T, byte[]> bytesSetter) {
+			this.bytesGetter = bytesGetter;
+			this.bytesSetter = bytesSetter;
+			return this;
+		}
+	}
+
+	// Child records of the parent T, typed by their own schema
+	static class ChildRecordsObject<T, C> {
+		private final Function<T, List<C>> getter;
+		private final BiConsumer<T, List<C>> setter;
+		private final DatRecordSchema<C> childSchema;
+
+		ChildRecordsObject(Function<T, List<C>> getter, BiConsumer<T, List<C>> setter, DatRecordSchema<C> childSchema) {
+			this.getter = getter;
+			this.setter = setter;
+			this.childSchema = childSchema;
+		}
+
+		public DatRecordSchema<C> getChildSchema() {
+			return childSchema;
+		}
+
+		public int getChildrenCount(T obj) {
+			List<C> childrenList = getter.apply(obj);
+			return childrenList != null ? childrenList.size() : 0;
+		}
+
+		public void read(ByteBuffer buffer, int childPos, int childrenCount, int valuesPos, T obj) {
+			List<C> childrenList = new ArrayList<>(childrenCount);
+			for (int i = 0; i < childrenCount; i++) {
+				childrenList.add(childSchema.readFields(buffer, childPos, valuesPos));
+				childPos += childSchema.recordSize;
+			}
+			setter.accept(obj, childrenList);
+		}
+
+		// Returns the size of written records
+		public int write(ByteBuffer buffer, int bufferPos, int filePos, int valuesPos, int valuesCount, T obj) {
+			List<C> childrenList = getter.apply(obj);
+			int curPos = 0;
+			for (int i = 0; childrenList != null && i < childrenList.size(); i++) {
+				childSchema.writeFields(buffer, bufferPos + curPos, filePos + curPos, valuesPos, valuesCount, 0,
+						childrenList.get(i));
+				curPos += childSchema.recordSize;
+			}
+			return curPos;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Reading and replacing of the resource inside of GAMEPLAY.BNDL (Bundle 2 "bnd2" format, PC version),
+// so the bundle doesn't need to be unpacked and repacked with Noesis.
+// Header: "bnd2", version, platform, debug data offset, resources count, resource entries offset,
+// data offsets of 3 memory blocks, flags (1 = resources are zlib compressed).
+// Resource entry (64 bytes): resource ID (8 bytes), import hash (8 bytes), uncompressed sizes of 3 blocks,
+// sizes on disk of 3 blocks, disk offsets of 3 blocks (from the block data offset), import offset,
+// resource type, imports count (2 bytes), flags, stream index (1 byte each).
+// Sizes are stored with alignment in the top 4 bits, as 1 << (size >>> 28)
+public class EventCarListBundle {
+
+	public static final long eventCarListResourceId = 0x000F30F7L; // F7_30_0F_00, unpacked by Noesis into this name
+
+	private static final byte[] bundleMagicArray = "bnd2".getBytes(StandardCharsets.US_ASCII);
+	private static final int bundleVersion = 2;
+	private static final int platformPC = 1;
+	private static final int flagCompressed = 1;
+
+	private static final int debugDataOffsetPos = 0x0C;
+	private static final int entriesCountPos = 0x10;
+	private static final int entriesOffsetPos = 0x14;
+	private static final int dataOffsetsPos = 0x18;
+	private static final int flagsPos = 0x24;
+	private static final int entrySize = 0x40;
+	private static final int entryUncompressedSizePos = 0x10;
+	private static final int entryDiskSizePos = 0x1C;
+	private static final int entryDiskOffsetPos = 0x28;
+	private static final int memoryBlocksCount = 3;
+	private static final int sizeMask = 0x0FFFFFFF;
+	// Data after the replaced resource is moved by this step, so all resources keep their alignment
+	private static final int shiftAlignment = 0x80;
+
+	public static boolean isBundleFile(String filePath) {
+		return filePath.toLowerCase().endsWith(".bndl");
+	}
+
+	// Main memory block of the resource, which is the same as .dat file unpacked by Noesis.
+	// Uncompressed data is a view of the bundle buffer, without any copy
+	public static ByteBuffer readResource(ByteBuffer bundleBuffer, long resourceId) throws IOException {
+		bundleBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		int entryPos = findResourceEntry(bundleBuffer, resourceId);
+		int dataPos = bundleBuffer.getInt(dataOffsetsPos) + bundleBuffer.getInt(entryPos + entryDiskOffsetPos);
+		int uncompressedSize = bundleBuffer.getInt(entryPos + entryUncompressedSizePos) & sizeMask;
+		int diskSize = bundleBuffer.getInt(entryPos + entryDiskSizePos) & sizeMask;
+
+		ByteBuffer diskData = bundleBuffer.duplicate();
+		diskData.limit(dataPos + diskSize).position(dataPos);
+		diskData = diskData.slice();
+		if ((bundleBuffer.getInt(flagsPos) & flagCompressed) == 0) {
+			return diskData.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		byte[] resourceArray = new byte[uncompressedSize];
+		Inflater inflater = new Inflater();
+		try {
+			byte[] diskArray = new byte[diskSize];
+			diskData.get(diskArray);
+			inflater.setInput(diskArray);
+			if (inflater.inflate(resourceArray) != uncompressedSize || !inflater.finished()) {
+				throw new IOException("Resource " + Long.toHexString(resourceId) + " has wrong uncompressed size.");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Resource " + Long.toHexString(resourceId) + " is broken: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(resourceArray).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// New bundle with the main memory block of resource replaced. Only the entry of this resource is changed,
+	// and offsets of everything after it are shifted; all other resources are copied as they are
+	public static ByteBuffer replaceResource(ByteBuffer bundleBuffer, long resourceId, ByteBuffer resourceData)
+			throws IOException {
+		bundleBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		int entryPos = findResourceEntry(bundleBuffer, resourceId);
+		int mainDataOffset = bundleBuffer.getInt(dataOffsetsPos);
+		int diskOffset = bundleBuffer.getInt(entryPos + entryDiskOffsetPos);
+		int dataPos = mainDataOffset + diskOffset;
+		int oldUncompressedSize = bundleBuffer.getInt(entryPos + entryUncompressedSizePos);
+		int oldDiskSize = bundleBuffer.getInt(entryPos + entryDiskSizePos);
+
+		byte[] resourceArray = new byte[resourceData.remaining()];
+		resourceData.duplicate().get(resourceArray);
+		byte[] diskArray = resourceArray;
+		if ((bundleBuffer.getInt(flagsPos) & flagCompressed) != 0) {
+			diskArray = compressData(resourceArray);
+		}
+
+		// Space of the resource goes until the next data in the file
+		int dataEnd = findNextDataPos(bundleBuffer, dataPos);
+		int oldSpace = dataEnd - dataPos;
+		int shift = diskArray.length - oldSpace;
+		shift = shift > 0 ? (shift + shiftAlignment - 1) / shiftAlignment * shiftAlignment
+				: -(-shift / shiftAlignment * shiftAlignment);
+
+		ByteBuffer newBuffer = ByteBuffer.allocate(bundleBuffer.limit() + shift).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer headData = bundleBuffer.duplicate();
+		headData.limit(dataPos).position(0);
+		newBuffer.put(headData);
+		newBuffer.put(diskArray);
+		newBuffer.position(dataEnd + shift); // Rest of the space stays with zero bytes
+		ByteBuffer tailData = bundleBuffer.duplicate();
+		tailData.limit(bundleBuffer.limit()).position(dataEnd);
+		newBuffer.put(tailData);
+		newBuffer.flip();
+
+		// Header offsets and main memory block offsets of resources after this one
+		shiftOffset(newBuffer, debugDataOffsetPos, dataPos, shift);
+		for (int i = 1; i < memoryBlocksCount; i++) {
+			shiftOffset(newBuffer, dataOffsetsPos + i * 4, dataPos, shift);
+		}
+		int entriesOffset = newBuffer.getInt(entriesOffsetPos);
+		for (int i = 0; i < newBuffer.getInt(entriesCountPos); i++) {
+			int curEntryPos = entriesOffset + i * entrySize;
+			if (curEntryPos == entryPos) continue;
+			int curDiskOffset = newBuffer.getInt(curEntryPos + entryDiskOffsetPos);
+			if (curDiskOffset > diskOffset) {
+				newBuffer.putInt(curEntryPos + entryDiskOffsetPos, curDiskOffset + shift);
+			}
+		}
+		newBuffer.putInt(entryPos + entryUncompressedSizePos, (oldUncompressedSize & ~sizeMask) | resourceArray.length);
+		newBuffer.putInt(entryPos + entryDiskSizePos, (oldDiskSize & ~sizeMask) | diskArray.length);
+		System.out.println("### Bundle resource " + Long.toHexString(resourceId) + " has been replaced, "
+				+ "data after it is moved by " + shift + " bytes.");
+		return newBuffer;
+	}
+
+	private static int findResourceEntry(ByteBuffer bundleBuffer, long resourceId) throws IOException {
+		if (bundleBuffer.limit() < flagsPos + 4
+				|| !Arrays.equals(readBytes(bundleBuffer, 0, bundleMagicArray.length), bundleMagicArray)) {
+			throw new IOException("File is not a bundle, \"bnd2\" header is expected.");
+		}
+		if (bundleBuffer.getInt(4) != bundleVersion || bundleBuffer.getInt(8) != platformPC) {
+			throw new IOException("Only PC bundles of version " + bundleVersion + " are supported.");
+		}
+		int entriesOffset = bundleBuffer.getInt(entriesOffsetPos);
+		for (int i = 0; i < bundleBuffer.getInt(entriesCountPos); i++) {
+			int entryPos = entriesOffset + i * entrySize;
+			if (bundleBuffer.getLong(entryPos) == resourceId) {
+				return entryPos;
+			}
+		}
+		throw new IOException("Resource " + Long.toHexString(resourceId) + " is not found in the bundle.");
+	}
+
+	// Start of the closest data after dataPos: other main memory resource, next memory block, debug data or file end
+	private static int findNextDataPos(ByteBuffer bundleBuffer, int dataPos) {
+		int nextDataPos = bundleBuffer.limit();
+		int mainDataOffset = bundleBuffer.getInt(dataOffsetsPos);
+		int entriesOffset = bundleBuffer.getInt(entriesOffsetPos);
+		for (int i = 0; i < bundleBuffer.getInt(entriesCountPos); i++) {
+			int curDataPos = mainDataOffset + bundleBuffer.getInt(entriesOffset + i * entrySize + entryDiskOffsetPos);
+			if (curDataPos > dataPos) {
+				nextDataPos = Math.min(nextDataPos, curDataPos);
+			}
+		}
+		for (int i = 1; i < memoryBlocksCount; i++) {
+			int blockOffset = bundleBuffer.getInt(dataOffsetsPos + i * 4);
+			if (blockOffset > dataPos) {
+				nextDataPos = Math.min(nextDataPos, blockOffset);
+			}
+		}
+		int debugDataOffset = bundleBuffer.getInt(debugDataOffsetPos);
+		if (debugDataOffset > dataPos) {
+			nextDataPos = Math.min(nextDataPos, debugDataOffset);
+		}
+		return nextDataPos;
+	}
+
+	private static void shiftOffset(ByteBuffer bundleBuffer, int offsetPos, int dataPos, int shift) {
+		int offset = bundleBuffer.getInt(offsetPos);
+		if (offset > dataPos) {
+			bundleBuffer.putInt(offsetPos, offset + shift);
+		}
+	}
+
+	private static byte[] compressData(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			byte[] compressedArray = new byte[data.length + 64];
+			int compressedSize = 0;
+			while (!deflater.finished()) {
+				if (compressedSize == compressedArray.length) {
+					compressedArray = Arrays.copyOf(compressedArray, compressedArray.length * 2);
+				}
+				compressedSize += deflater.deflate(compressedArray, compressedSize, compressedArray.length - compressedSize);
+			}
+			return Arrays.copyOf(compressedArray, compressedSize);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer, int pos, int size) {
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = buffer.get(pos + i);
+		}
+		return data;
+	}
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Results of unpack & repack, saved by the hash of input file, tool version and command options (-cache <folder>).
+// If the same input comes again, the result is copied from the cache, or not even copied if output is the same.
+// Cache files are removed by last use time, when the cache folder becomes bigger than the size limit
+public class EventCarListCache {
+
+	public static final long defaultSizeLimit = 256L * 1024 * 1024;
+	private static final String cacheFileExt = ".out";
+
+	private final Path cacheFolder;
+	private final long sizeLimit;
+	private final String toolVersion;
+
+	public interface CachedTask {
+		void run() throws IOException;
+	}
+
+	public EventCarListCache(Path cacheFolder, long sizeLimit) throws IOException {
+		this.cacheFolder = cacheFolder;
+		this.sizeLimit = sizeLimit;
+		this.toolVersion = getToolVersion();
+		Files.createDirectories(cacheFolder);
+	}
+
+	// Task is done only if there is no result for this input & options in the cache
+	public void runCached(Path inputFile, String options, Path outputFile, CachedTask task) throws IOException {
+		Path cacheFile = cacheFolder.resolve(getCacheKey(inputFile, options) + cacheFileExt);
+		if (Files.isRegularFile(cacheFile)) {
+			if (isSameContent(cacheFile, outputFile)) {
+				System.out.println("### Output is up to date: " + outputFile);
+			} else {
+				copyFile(cacheFile, outputFile);
+				System.out.println("### Output is taken from the cache: " + outputFile);
+			}
+			Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(System.currentTimeMillis()));
+			return;
+		}
+		task.run();
+		copyFile(outputFile, cacheFile);
+		removeOldFiles();
+	}
+
+	private String getCacheKey(Path inputFile, String options) throws IOException {
+		try (FileChannel inputChannel = FileChannel.open(inputFile, StandardOpenOption.READ)) {
+			MappedByteBuffer inputBuffer = inputChannel.map(FileChannel.MapMode.READ_ONLY, 0, inputChannel.size());
+			CRC32C crc = new CRC32C();
+			crc.update(inputBuffer.duplicate());
+			ByteBuffer optionsBuffer = ByteBuffer.wrap((toolVersion + "|" + options).getBytes(StandardCharsets.UTF_8));
+			return String.format("%016x%08x-%016x", hashBuffer(inputBuffer), crc.getValue(), hashBuffer(optionsBuffer));
+		}
+	}
+
+	// 64-bit hash, with the same mixing as MurmurHash3, 8 bytes per step
+	private static long hashBuffer(ByteBuffer buffer) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int size = buffer.limit();
+		long hash = 0x9E3779B97F4A7C15L ^ size;
+		int pos = 0;
+		for (; pos + 8 <= size; pos += 8) {
+			hash = mixHash(hash, buffer.getLong(pos));
+		}
+		long tail = 0;
+		for (int i = 0; pos + i < size; i++) {
+			tail |= (buffer.get(pos + i) & 0xFFL) << (i * 8);
+		}
+		hash = mixHash(hash, tail);
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		return hash ^ (hash >>> 33);
+	}
+
+	private static long mixHash(long hash, long value) {
+		value *= 0x87C37B91114253D5L;
+		value = Long.rotateLeft(value, 31);
+		value *= 0x4CF5AD432745937FL;
+		hash ^= value;
+		return Long.rotateLeft(hash, 27) * 5 + 0x52DCE729;
+	}
+
+	private static boolean isSameContent(Path firstFile, Path secondFile) throws IOException {
+		if (!Files.isRegularFile(secondFile) || Files.size(firstFile) != Files.size(secondFile)) return false;
+		try (FileChannel firstChannel = FileChannel.open(firstFile, StandardOpenOption.READ);
+				FileChannel secondChannel = FileChannel.open(secondFile, StandardOpenOption.READ)) {
+			return firstChannel.map(FileChannel.MapMode.READ_ONLY, 0, firstChannel.size())
+					.mismatch(secondChannel.map(FileChannel.MapMode.READ_ONLY, 0, secondChannel.size())) == -1;
+		}
+	}
+
+	// Copy goes into the temporary file first, as the batch threads and other processes could use the same cache file
+	private static void copyFile(Path sourceFile, Path targetFile) throws IOException {
+		Path tempFile = EventCarListEditor.getTempFile(targetFile);
+		try {
+			Files.copy(sourceFile, tempFile, StandardCopyOption.REPLACE_EXISTING);
+			try {
+				Files.move(tempFile, targetFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	// Least recently used files are removed first
+	private void removeOldFiles() throws IOException {
+		List<Path> cacheFiles = new ArrayList<>();
+		long totalSize = 0;
+		try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(cacheFolder, "*" + cacheFileExt)) {
+			for (Path cacheFile : dirStream) {
+				cacheFiles.add(cacheFile);
+				totalSize += Files.size(cacheFile);
+			}
+		}
+		if (totalSize <= sizeLimit) return;
+		cacheFiles.sort((first, second) -> getLastModifiedTime(first).compareTo(getLastModifiedTime(second)));
+		for (Path cacheFile : cacheFiles) {
+			if (totalSize <= sizeLimit) break;
+			try {
+				long fileSize = Files.size(cacheFile);
+				Files.delete(cacheFile);
+				totalSize -= fileSize;
+			} catch (NoSuchFileException e) { // Already removed by another thread
+			}
+		}
+	}
+
+	private static FileTime getLastModifiedTime(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	// Time of the editor class in the jar (or classes folder), so the new build of the tool doesn't use old results
+	private static String getToolVersion() throws IOException {
+		URL classUrl = EventCarListEditor.class.getResource("EventCarListEditor.class");
+		return classUrl == null ? "unknown" : Long.toString(classUrl.openConnection().getLastModified());
+	}
+}
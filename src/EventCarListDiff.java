@@ -0,0 +1,259 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonWriter;
+
+// Changes between two files (diff command): events are matched by EventId and cars by CarId inside of the event,
+// cars with the same CarId go in their order. Only the values are compared, offsets and the bottom index
+// follow from the layout. Old file is kept in memory, and the new one is compared event by event while it's read
+public class EventCarListDiff {
+
+	private static final int byteArraySize = 4;
+	private static final int byteSmallArraySize = 2;
+
+	public static final String eventAdded = "EventAdded";
+	public static final String eventRemoved = "EventRemoved";
+	public static final String carAdded = "CarAdded";
+	public static final String carRemoved = "CarRemoved";
+	public static final String carChanged = "CarChanged";
+	public static final String carsOrderChanged = "CarsOrderChanged";
+	public static final String partUnlockIdsChanged = "PartUnlockIdsChanged";
+
+	private final EventCarListEditor eventCarListEd;
+
+	// Old events by EventId, matched ones are removed, so the rest are removed events.
+	// Several events could have the same EventId, they are matched in their order
+	private final Map<Integer, List<EventCarListEditor.EventEntryObject>> oldEventsMap = new LinkedHashMap<>();
+	private final List<ChangeObject> changesList = new ArrayList<>();
+
+	public EventCarListDiff(EventCarListEditor eventCarListEd) {
+		this.eventCarListEd = eventCarListEd;
+	}
+
+	public List<ChangeObject> getChangesList() {
+		return changesList;
+	}
+
+	// Changes are printed, and saved into JSON if outputName is set (name without .json).
+	// Returns true if files have the same events
+	public boolean diffFiles(String oldPath, String newPath, String outputName) throws IOException {
+		eventCarListEd.readEventsFile(oldPath, this::addOldEvent);
+		eventCarListEd.readEventsFile(newPath, this::diffNewEvent);
+		addRemovedEvents();
+
+		for (ChangeObject changeObj : changesList) {
+			System.out.println("### " + changeObj.toTextLine());
+		}
+		System.out.println("### " + (changesList.isEmpty() ? "No changes." : changesList.size() + " changes found."));
+		if (outputName != null) {
+			writeChangesJson(outputName);
+		}
+		return changesList.isEmpty();
+	}
+
+	public void addOldEvent(EventCarListEditor.EventEntryObject eventObj) {
+		oldEventsMap.computeIfAbsent(eventObj.getEventId(), eventId -> new ArrayList<>(1)).add(eventObj);
+	}
+
+	public void diffNewEvent(EventCarListEditor.EventEntryObject eventObj) {
+		List<EventCarListEditor.EventEntryObject> oldEvents = oldEventsMap.get(eventObj.getEventId());
+		if (oldEvents == null || oldEvents.isEmpty()) {
+			changesList.add(new ChangeObject(eventAdded, eventObj.getEventId()));
+			return;
+		}
+		EventCarListEditor.EventEntryObject oldEventObj = oldEvents.remove(0);
+		if (!oldEventObj.equals(eventObj)) {
+			diffCars(oldEventObj, eventObj);
+			diffPartUnlockIds(oldEventObj, eventObj);
+		}
+	}
+
+	public void addRemovedEvents() {
+		for (List<EventCarListEditor.EventEntryObject> oldEvents : oldEventsMap.values()) {
+			for (EventCarListEditor.EventEntryObject oldEventObj : oldEvents) {
+				changesList.add(new ChangeObject(eventRemoved, oldEventObj.getEventId()));
+			}
+		}
+		oldEventsMap.clear();
+	}
+
+	// Old cars by CarId, each new car takes the next old car with the same CarId
+	private void diffCars(EventCarListEditor.EventEntryObject oldEventObj, EventCarListEditor.EventEntryObject eventObj) {
+		int eventId = eventObj.getEventId();
+		List<EventCarListEditor.CarEntryObject> oldCars = oldEventObj.getCarEntriesList();
+		Map<Integer, List<Integer>> oldCarPositions = new HashMap<>();
+		for (int i = 0; i < oldCars.size(); i++) {
+			oldCarPositions.computeIfAbsent(oldCars.get(i).getCarId(), carId -> new ArrayList<>()).add(i);
+		}
+		boolean[] isOldCarMatched = new boolean[oldCars.size()];
+		Map<Integer, Integer> carNumbers = new HashMap<>();
+		int lastOldPos = -1;
+		boolean isOrderChanged = false;
+		for (EventCarListEditor.CarEntryObject carObj : eventObj.getCarEntriesList()) {
+			int carNumber = carNumbers.merge(carObj.getCarId(), 1, Integer::sum) - 1;
+			List<Integer> positions = oldCarPositions.get(carObj.getCarId());
+			if (positions == null || carNumber >= positions.size()) {
+				changesList.add(new ChangeObject(carAdded, eventId).setCar(carObj.getCarId(), carNumber));
+				continue;
+			}
+			int oldPos = positions.get(carNumber);
+			isOldCarMatched[oldPos] = true;
+			isOrderChanged |= oldPos < lastOldPos;
+			lastOldPos = oldPos;
+			diffCarFields(eventId, carNumber, oldCars.get(oldPos), carObj);
+		}
+		Map<Integer, Integer> oldCarNumbers = new HashMap<>();
+		for (int i = 0; i < oldCars.size(); i++) {
+			int carNumber = oldCarNumbers.merge(oldCars.get(i).getCarId(), 1, Integer::sum) - 1;
+			if (!isOldCarMatched[i]) {
+				changesList.add(new ChangeObject(carRemoved, eventId).setCar(oldCars.get(i).getCarId(), carNumber));
+			}
+		}
+		if (isOrderChanged) {
+			changesList.add(new ChangeObject(carsOrderChanged, eventId));
+		}
+	}
+
+	private void diffCarFields(int eventId, int carNumber, EventCarListEditor.CarEntryObject oldCarObj,
+			EventCarListEditor.CarEntryObject carObj) {
+		if (oldCarObj.equals(carObj)) return;
+		diffIntField(eventId, carNumber, carObj, "UnknownArray1", oldCarObj.getUnknownArray1(), 
+				carObj.getUnknownArray1());
+		if (oldCarObj.getPartUnlockTypeIndex() != carObj.getPartUnlockTypeIndex()) {
+			changesList.add(new ChangeObject(carChanged, eventId).setCar(carObj.getCarId(), carNumber)
+					.setField("PartUnlockTypeIndex", Integer.toString(oldCarObj.getPartUnlockTypeIndex()),
+							Integer.toString(carObj.getPartUnlockTypeIndex())));
+		}
+		if (!Arrays.equals(oldCarObj.getTheFFArray(), carObj.getTheFFArray())) {
+			changesList.add(new ChangeObject(carChanged, eventId).setCar(carObj.getCarId(), carNumber)
+					.setField("TheFFArray", EventCarListEditor.hexToString(oldCarObj.getTheFFArray()),
+							EventCarListEditor.hexToString(carObj.getTheFFArray())));
+		}
+		diffIntField(eventId, carNumber, carObj, "PartsAmountId", oldCarObj.getPartsAmountId(), 
+				carObj.getPartsAmountId());
+		diffIntField(eventId, carNumber, carObj, "DifficultyId", oldCarObj.getDifficultyId(), 
+				carObj.getDifficultyId());
+	}
+
+	private void diffIntField(int eventId, int carNumber, EventCarListEditor.CarEntryObject carObj, String field,
+			int oldValue, int value) {
+		if (oldValue == value) return;
+		changesList.add(new ChangeObject(carChanged, eventId).setCar(carObj.getCarId(), carNumber)
+				.setField(field, EventCarListEditor.intToHexString(oldValue, byteArraySize),
+						EventCarListEditor.intToHexString(value, byteArraySize)));
+	}
+
+	private void diffPartUnlockIds(EventCarListEditor.EventEntryObject oldEventObj,
+			EventCarListEditor.EventEntryObject eventObj) {
+		if (Arrays.equals(oldEventObj.getPartUnlockIds(), eventObj.getPartUnlockIds())) return;
+		changesList.add(new ChangeObject(partUnlockIdsChanged, eventObj.getEventId()).setField("PartUnlockIds",
+				getPartUnlockIdsText(oldEventObj.getPartUnlockIds()), getPartUnlockIdsText(eventObj.getPartUnlockIds())));
+	}
+
+	private static String getPartUnlockIdsText(short[] partUnlockIds) {
+		StringBuilder text = new StringBuilder();
+		for (short partUnlockId : partUnlockIds) {
+			text.append(text.length() == 0 ? "" : " ")
+					.append(EventCarListEditor.intToHexString(partUnlockId, byteSmallArraySize));
+		}
+		return text.toString();
+	}
+
+	private void writeChangesJson(String outputName) throws IOException {
+		try (JsonWriter jsonWriter = new JsonWriter(
+				Files.newBufferedWriter(Paths.get(outputName + ".json"), StandardCharsets.UTF_8))) {
+			jsonWriter.setHtmlSafe(false);
+			jsonWriter.setIndent("  ");
+			jsonWriter.beginArray();
+			for (ChangeObject changeObj : changesList) {
+				changeObj.write(jsonWriter);
+			}
+			jsonWriter.endArray();
+		}
+		System.out.println("### Changes are saved: " + outputName + ".json");
+	}
+
+	//
+	// Objects
+	//
+
+	// One change: kind, event and car (if it's about the car), changed field with old and new values
+	public static class ChangeObject {
+		private final String kind;
+		private final int eventId;
+		private boolean hasCar = false;
+		private int carId;
+		private int carNumber;
+		private String field;
+		private String oldValue;
+		private String newValue;
+
+		public ChangeObject(String kind, int eventId) {
+			this.kind = kind;
+			this.eventId = eventId;
+		}
+
+		public String getKind() {
+			return kind;
+		}
+
+		public int getEventId() {
+			return eventId;
+		}
+
+		public ChangeObject setCar(int carId, int carNumber) {
+			this.hasCar = true;
+			this.carId = carId;
+			this.carNumber = carNumber;
+			return this;
+		}
+
+		public ChangeObject setField(String field, String oldValue, String newValue) {
+			this.field = field;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+			return this;
+		}
+
+		// Number goes only for the second car with the same CarId and others, as "#2"
+		public String toTextLine() {
+			StringBuilder text = new StringBuilder(kind).append(": event ")
+					.append(EventCarListEditor.intToHexString(eventId, byteArraySize));
+			if (hasCar) {
+				text.append(", car ").append(EventCarListEditor.intToHexString(carId, byteArraySize));
+				if (carNumber > 0) {
+					text.append(" #").append(carNumber + 1);
+				}
+			}
+			if (field != null) {
+				text.append(", ").append(field).append(": ").append(oldValue.isEmpty() ? "(none)" : oldValue)
+						.append(" -> ").append(newValue.isEmpty() ? "(none)" : newValue);
+			}
+			return text.toString();
+		}
+
+		public void write(JsonWriter jsonWriter) throws IOException {
+			jsonWriter.beginObject();
+			jsonWriter.name("Change").value(kind);
+			jsonWriter.name("EventId").value(EventCarListEditor.intToHexString(eventId, byteArraySize));
+			if (hasCar) {
+				jsonWriter.name("CarId").value(EventCarListEditor.intToHexString(carId, byteArraySize));
+				jsonWriter.name("CarNumber").value(carNumber + 1);
+			}
+			if (field != null) {
+				jsonWriter.name("Field").value(field);
+				jsonWriter.name("Old").value(oldValue);
+				jsonWriter.name("New").value(newValue);
+			}
+			jsonWriter.endObject();
+		}
+	}
+}
@@ -1,336 +1,1049 @@
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.charset.Charset;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonIOException;
-import com.google.gson.annotations.SerializedName;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 public class EventCarListEditor {
 
-	private static String textEncoding = "windows-1251"; // Works for NFS PS1 text files, so use it here too lol
+	static final TypeAdapter<CarEntryObject> carJsonAdapter = new CarJsonAdapter();
+	static final TypeAdapter<EventEntryObject> eventJsonAdapter = new EventJsonAdapter();
 	private static final byte[] HEX_ARRAY = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
 	
-	private static int datHeaderSize = 24;
-	private static int entryHeaderSize = 12;
-	private static int byteArraySize = 4;
-	private static int byteSmallArraySize = 2;
-	private static int curPos = 0;
+	private static final int datHeaderSize = 24;
+	private static final int entryHeaderSize = 12;
+	private static final int byteArraySize = 4;
+	private static final int byteSmallArraySize = 2;
+	private static final int eventEntrySize = 24;
+	private static final int carEntrySize = 44;
+	private static final int bottomEntrySize = 16;
+	private static final int binaryCarEntrySize = 32;
+	private static final int binaryFormatVersion = 1;
+	private static final int parallelChunkSize = 4096; // Events decoded at once, before they go to the consumer
+	private static final int parallelTaskSize = 64; // Events decoded by one fork/join task
 	
-	private static byte[] eighteenByte = new byte[]{00,00,00,(byte)0x80};
-	private static byte[] emptyByteArray = new byte[]{00,00,00,00};
-	private static byte[] emptyDoubleByteArray = new byte[]{00,00,00,00,00,00,00,00};
+	private static final byte[] emptyDoubleByteArray = new byte[]{00,00,00,00,00,00,00,00};
 	
-	private static byte[] datHeaderArray = new byte[]{
+	private static final byte[] datHeaderArray = new byte[]{
 			00,00,00,00,00,00,00,00,(byte)0xBC,(byte)0x85,(byte)0x5D,(byte)0x7F,(byte)0xF7,(byte)0x30,(byte)0x0F,00,(byte)0x18,00,00,00};
-	private static byte[] eventHeaderArray = new byte[]{
+	private static final byte[] eventHeaderArray = new byte[]{
 			00,00,00,00,00,00,00,00,(byte)0xED,(byte)0xFC,(byte)0xC0,(byte)0x52};
-	private static byte[] carHeaderArray = new byte[]{
+	private static final byte[] carHeaderArray = new byte[]{
 			00,00,00,00,00,00,00,00,(byte)0x39,(byte)0x07,(byte)0x3E,(byte)0xA4};
-	private static byte[] indexEndByteArray = new byte[]{
+	private static final byte[] indexEndByteArray = new byte[]{
 			00,00,00,00,(byte)0xF8,(byte)0xFF,(byte)0xFF,(byte)0xFF,00,00,00,(byte)0x01,00,00,00,(byte)0x80,00,00,00,00};
 	
-	private static byte[] eventBottomHeaderArray = new byte[]{
+	private static final byte[] eventBottomHeaderArray = new byte[]{
 			(byte)0xF5,(byte)0x30,(byte)0x0F,00,00,00,00,(byte)0x01};
-	private static byte[] carBottomHeaderArray = new byte[]{
+	private static final byte[] carBottomHeaderArray = new byte[]{
 			(byte)0xAA,(byte)0x1D,(byte)0x10,00,00,00,00,(byte)0x01};
 	
+	private static final byte[] theFFArrayDefault = new byte[]{
+			(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF,(byte)0xFF};
+	
+	// Event entry: header, EventId, offset and amount of cars, then go the car entries and PartUnlock arrays.
+	// Car entry: header, CarId, UnknownArray1, offset of its PartUnlock array, TheFFArray, PartsAmountId, DifficultyId
+	private static final DatRecordSchema<CarEntryObject> carSchema = new DatRecordSchema<>(
+			"car entry", CarEntryObject::new, carEntrySize, carBottomHeaderArray)
+			.constant(0, carHeaderArray)
+			.intField(12, "CarId", CarEntryObject::getCarId, CarEntryObject::setCarId)
+			.intField(16, "UnknownArray1", CarEntryObject::getUnknownArray1, CarEntryObject::setUnknownArray1)
+			.valueIndexField(20, "PartUnlockOffset", "PartUnlockTypeIndex", 
+					CarEntryObject::getPartUnlockTypeIndex, CarEntryObject::setPartUnlockTypeIndex)
+			.bytesField(24, "TheFFArray", CarEntryObject::getTheFFArray, CarEntryObject::setTheFFArray, 
+					theFFArrayDefault)
+			.intField(36, "PartsAmountId", CarEntryObject::getPartsAmountId, CarEntryObject::setPartsAmountId)
+			.intField(40, "DifficultyId", CarEntryObject::getDifficultyId, CarEntryObject::setDifficultyId)
+			.build();
+	private static final DatRecordSchema<EventEntryObject> eventSchema = new DatRecordSchema<>(
+			"event entry", EventEntryObject::new, eventEntrySize, eventBottomHeaderArray)
+			.constant(0, eventHeaderArray)
+			.intField(12, "EventId", EventEntryObject::getEventId, EventEntryObject::setEventId)
+			.childrenOffsetField(16, "CarEntriesOffset")
+			.childrenCountField(20, "CarEntriesCount")
+			.childRecords(EventEntryObject::getCarEntriesList, EventEntryObject::setCarEntriesList, carSchema)
+			.valueArray(EventEntryObject::getPartUnlockIds, EventEntryObject::setPartUnlockIds, indexEndByteArray)
+			.build();
+	
+	private static final byte[] binaryHeaderArray = "ECLB".getBytes(StandardCharsets.US_ASCII);
+	private static final Pattern eventIdLinePattern = Pattern.compile("^\\s*((?:[0-9A-Fa-f]{2} ?){4})\\s*-");
+	
+	private EventCarListStats stats = new EventCarListStats();
+	private boolean isVerbose = false; // Print each event, which is slow on big lists
+	private boolean isParallel = false; // Decode events on all cores
+	private TypeAdapter<EventEntryObject> jsonOutputAdapter = eventJsonAdapter; // With the names, if they are set
+	
+	public EventCarListStats getStats() {
+		return stats;
+	}
+	
+	public void setStats(EventCarListStats stats) {
+		this.stats = stats;
+	}
+	
+	public boolean isVerbose() {
+		return isVerbose;
+	}
+	
+	public void setVerbose(boolean isVerbose) {
+		this.isVerbose = isVerbose;
+	}
+	
+	public boolean isParallel() {
+		return isParallel;
+	}
+	
+	public void setParallel(boolean isParallel) {
+		this.isParallel = isParallel;
+	}
+	
+	// Names of IDs in JSON output (unpack, extract, merge), input takes both names and hex values anyway
+	public void setNamesMode(EventCarListNames.NamesMode namesMode) {
+		this.jsonOutputAdapter = namesMode == EventCarListNames.NamesMode.NONE ? eventJsonAdapter 
+				: new EventJsonAdapter(namesMode);
+	}
+	
 	//
 	// dat-file read
 	//
 	
 	public void unpackDatFile(String filePath, String outputName) throws IOException {
-		byte[] datArray = Files.readAllBytes(Paths.get(filePath));
+		unpackDatFile(filePath, outputName, false);
+	}
+	
+	public void unpackDatFile(String filePath, String outputName, boolean isCompactJson) throws IOException {
+		try (FileChannel datChannel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+				JsonWriter jsonWriter = createJsonWriter(outputName, isCompactJson)) {
+			// Map the file instead of copying it on heap, fields are read from the mapped view
+			ByteBuffer datBuffer = mapDatFile(datChannel, filePath);
+			// Each event goes to JSON right after decoding, so only one event is kept in memory
+			jsonWriter.beginArray();
+			readDatBuffer(datBuffer, eventObj -> jsonOutputAdapter.write(jsonWriter, eventObj), EventCarListStats.phaseJsonWrite);
+			jsonWriter.endArray();
+		}
+		stats.addBytesWritten(Files.size(Paths.get(outputName + ".json")));
+		System.out.println("### .dat-file has been unpacked!");
+	}
+	
+	// Whole file is loaded into memory here, as the events are decoded right after it.
+	// From the bundle (.BNDL) only the events resource is taken
+	private ByteBuffer mapDatFile(FileChannel datChannel, String filePath) throws IOException {
+		long startTime = System.nanoTime();
+		MappedByteBuffer fileBuffer = datChannel.map(FileChannel.MapMode.READ_ONLY, 0, datChannel.size());
+		ByteBuffer datBuffer = fileBuffer;
+		if (EventCarListBundle.isBundleFile(filePath)) {
+			datBuffer = EventCarListBundle.readResource(fileBuffer, EventCarListBundle.eventCarListResourceId);
+		} else {
+			fileBuffer.load();
+		}
+		stats.addPhaseTime(EventCarListStats.phaseRead, System.nanoTime() - startTime);
+		stats.addBytesRead(datBuffer.limit());
+		return datBuffer;
+	}
+	
+	// Into the bundle (.BNDL) new .dat file goes as the events resource, the rest of the bundle is kept
+	private void writeDatOutputFile(String outputName, ByteBuffer datBuffer) throws IOException {
+		Path outputFile = Paths.get(outputName);
+		if (EventCarListBundle.isBundleFile(outputName)) {
+			ByteBuffer bundleBuffer = ByteBuffer.wrap(Files.readAllBytes(outputFile));
+			stats.addBytesRead(bundleBuffer.limit());
+			datBuffer = EventCarListBundle.replaceResource(bundleBuffer, EventCarListBundle.eventCarListResourceId, datBuffer);
+		}
+		writeFileAtomically(outputFile, datBuffer);
+	}
+	
+	public List<EventEntryObject> readDatBuffer(ByteBuffer datBuffer) throws IOException {
+		List<EventEntryObject> eventsList = new ArrayList<>();
+		readDatBuffer(datBuffer, eventsList::add);
+		return eventsList;
+	}
+	
+	public int readDatBuffer(ByteBuffer datBuffer, EventEntryConsumer eventConsumer) throws IOException {
+		return readDatBuffer(datBuffer, eventConsumer, null);
+	}
+	
+	// Event entry and its cars must be before eventEnd (or the file end if it's -1), 
+	// broken files would be read out of the buffer
+	private static void checkEventBounds(ByteBuffer datBuffer, int eventPos, int eventEnd, int eventIndex) {
+		int endPos = eventEnd != -1 ? Math.min(eventEnd, datBuffer.limit()) : datBuffer.limit();
+		if (eventPos + eventEntrySize > endPos || eventPos + eventSchema.getRecordSize(
+				eventSchema.readChildrenCount(datBuffer, eventPos), 0) > endPos) {
+			throw new IndexOutOfBoundsException("Broken .dat file: event " + eventIndex + " on 0x" 
+					+ Integer.toHexString(eventPos) + " goes past its end");
+		}
+	}
+	
+	// Time of the consumer goes into consumerPhase of stats, if it's set
+	private int readDatBuffer(ByteBuffer datBuffer, EventEntryConsumer eventConsumer, String consumerPhase) 
+			throws IOException {
+		if (isParallel) {
+			return readDatBufferParallel(datBuffer, eventConsumer, consumerPhase);
+		}
+		long startTime = System.nanoTime();
+		datBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		int curPos = 0; // Cursor is kept per call, so the same editor can be used again or from several threads
 		
 		// How much event entries we got?
-		List<byte[]> eventOffsetsList = new ArrayList<>();
-		boolean isOffsetsEnded = false;
-		changeCurPos(curPos, datHeaderSize); // Skip header bytes
-		while (!isOffsetsEnded) {
-			byte[] checkOffsetArray = Arrays.copyOfRange(datArray, curPos, curPos + byteArraySize);
-			if (!Arrays.equals(checkOffsetArray, emptyByteArray)) {
-				eventOffsetsList.add(checkOffsetArray);
-				changeCurPos(curPos, byteArraySize);
-				// System.out.println("### passed: " + hexToString(checkOffsetArray));
-			} else {
-				isOffsetsEnded = true;
-			}	
+		int eventOffsetsCount = 0;
+		curPos += datHeaderSize; // Skip header bytes
+		while (curPos + byteArraySize <= datBuffer.limit() && datBuffer.getInt(curPos) != 0) {
+			eventOffsetsCount++;
+			curPos += byteArraySize;
+		}
+		if (curPos + byteArraySize > datBuffer.limit()) {
+			throw new IndexOutOfBoundsException("Broken .dat file: event offsets table has no end");
 		}
-		System.out.println("### Event offset entries: " + eventOffsetsList.size() + " found.");
-		isOffsetsEnded = false;
+		stats.addPhaseTime(EventCarListStats.phaseOffsetScan, System.nanoTime() - startTime);
+		System.out.println("### Event offset entries: " + eventOffsetsCount + " found.");
 
 		// Fetch all events and their car lists
-		List<EventEntryObject> eventsList = new ArrayList<>();
-		while (!isOffsetsEnded) {
-			if (!Arrays.equals(Arrays.copyOfRange(datArray, curPos, curPos + emptyDoubleByteArray.length), emptyDoubleByteArray)) {
-				isOffsetsEnded = true; // Events has been ended
-				break;
+		int eventsCount = 0;
+		int carsCount = 0;
+		int partUnlocksCount = 0;
+		long decodeTime = 0;
+		long consumerTime = 0;
+		while (curPos + emptyDoubleByteArray.length <= datBuffer.limit() && datBuffer.getLong(curPos) == 0) {
+			checkEventBounds(datBuffer, curPos, -1, eventsCount);
+			long eventStartTime = System.nanoTime();
+			EventEntryObject eventObj = readEventBytes(datBuffer, curPos, -1);
+			long eventDecodedTime = System.nanoTime();
+			curPos += getEventSize(eventObj);
+			eventConsumer.accept(eventObj);
+			decodeTime += eventDecodedTime - eventStartTime;
+			consumerTime += System.nanoTime() - eventDecodedTime;
+			eventsCount++;
+			carsCount += eventObj.getCarEntriesList().size();
+			partUnlocksCount += eventObj.getPartUnlockIds().length;
+			if (isVerbose) {
+				System.out.println("### Event ID: " + intToHexString(eventObj.getEventId(), byteArraySize) + ", cars count: " + eventObj.getCarEntriesList().size());
 			}
-			EventEntryObject eventObj = new EventEntryObject();
-			List<CarEntryObject> carEntriesList = new ArrayList<>();
-			List<byte[]> partUnlockIdsList = new ArrayList<>();
-			
-			eventObj.setHeader(Arrays.copyOfRange(datArray, curPos, curPos + entryHeaderSize));
-			changeCurPos(curPos, entryHeaderSize);
-			//
-			eventObj.setEventId(Arrays.copyOfRange(datArray, curPos, curPos + byteArraySize));
-			changeCurPos(curPos, byteArraySize * 2); // Skip CarEntriesOffset
-			//
-			eventObj.setCarEntriesCount(Arrays.copyOfRange(datArray, curPos, curPos + byteArraySize));
-			int carEntriesCount = eventObj.getCarEntriesCount()[0] & 0xFF;
-			changeCurPos(curPos, byteArraySize);
-			
-			for (int i = 0; i < carEntriesCount; i++) {
-				CarEntryObject carObj = new CarEntryObject();
-				carObj.setHeader(Arrays.copyOfRange(datArray, curPos, curPos + entryHeaderSize));
-				changeCurPos(curPos, entryHeaderSize);
-				//
-				carObj.setCarId(Arrays.copyOfRange(datArray, curPos, curPos + byteArraySize));
-				changeCurPos(curPos, byteArraySize);
-				//
-				carObj.setUnknownArray1(Arrays.copyOfRange(datArray, curPos, curPos + byteArraySize));
-				changeCurPos(curPos, byteArraySize);
-				//
-				byte[] partUnlockTypeIndexOffset = Arrays.copyOfRange(datArray, curPos, curPos + byteArraySize);
-				carObj.setPartUnlockTypeIndex(!Arrays.equals(partUnlockTypeIndexOffset, emptyByteArray) ? 
-						byteArrayToInt(partUnlockTypeIndexOffset) : 0); // Sometimes car can have zero bytes here
-				changeCurPos(curPos, byteArraySize); // Temporarily save the PartUnlock offset here
-				//
-				carObj.setTheFFArray(Arrays.copyOfRange(datArray, curPos, curPos + entryHeaderSize));
-				changeCurPos(curPos, entryHeaderSize);
-				//
-				carObj.setPartsAmountId(Arrays.copyOfRange(datArray, curPos, curPos + byteArraySize));
-				changeCurPos(curPos, byteArraySize);
-				//
-				carObj.setDifficultyId(Arrays.copyOfRange(datArray, curPos, curPos + byteArraySize));
-				changeCurPos(curPos, byteArraySize);
-				carEntriesList.add(carObj);
+		}
+		System.out.println("### Event entries: " + eventsCount + " found.");
+		stats.addPhaseTime(EventCarListStats.phaseEventDecode, decodeTime);
+		if (consumerPhase != null) {
+			stats.addPhaseTime(consumerPhase, consumerTime);
+		}
+		stats.addDecodedEntries(eventsCount, carsCount, partUnlocksCount);
+		return eventsCount;
+	}
+	
+	// Event boundaries are taken from the header offsets table, so events are decoded on the fork/join pool
+	// without scanning for the PartUnlock arrays end. Consumer gets them in the file order, as on sequential reading
+	private int readDatBufferParallel(ByteBuffer datBuffer, EventEntryConsumer eventConsumer, String consumerPhase) 
+			throws IOException {
+		long startTime = System.nanoTime();
+		DatIndexObject datIndex = readDatIndex(datBuffer);
+		int eventsCount = datIndex.getEventsCount();
+		stats.addPhaseTime(EventCarListStats.phaseOffsetScan, System.nanoTime() - startTime);
+		System.out.println("### Event offset entries: " + eventsCount + " found.");
+		
+		int carsCount = 0;
+		int partUnlocksCount = 0;
+		long decodeTime = 0;
+		long consumerTime = 0;
+		EventEntryObject[] eventsArray = new EventEntryObject[Math.min(eventsCount, parallelChunkSize)];
+		for (int chunkStart = 0; chunkStart < eventsCount; chunkStart += parallelChunkSize) {
+			int chunkEnd = Math.min(chunkStart + parallelChunkSize, eventsCount);
+			long chunkStartTime = System.nanoTime();
+			ForkJoinPool.commonPool().invoke(new DecodeEventsTask(datBuffer, datIndex, eventsArray, chunkStart, chunkStart, chunkEnd));
+			long chunkDecodedTime = System.nanoTime();
+			for (int i = 0; i < chunkEnd - chunkStart; i++) {
+				EventEntryObject eventObj = eventsArray[i];
+				eventsArray[i] = null;
+				eventConsumer.accept(eventObj);
+				carsCount += eventObj.getCarEntriesList().size();
+				partUnlocksCount += eventObj.getPartUnlockIds().length;
+				if (isVerbose) {
+					System.out.println("### Event ID: " + intToHexString(eventObj.getEventId(), byteArraySize) + ", cars count: " + eventObj.getCarEntriesList().size());
+				}
 			}
-			
-			// Now we can determine Ids of PartUnlockType arrays for each car entry
-			for (CarEntryObject carObj : carEntriesList) {
-				if (carObj.getPartUnlockTypeIndex() == 0) continue; // Left as it is
-				carObj.setPartUnlockTypeIndex((carObj.getPartUnlockTypeIndex() - curPos) / 2);
+			decodeTime += chunkDecodedTime - chunkStartTime;
+			consumerTime += System.nanoTime() - chunkDecodedTime;
+		}
+		System.out.println("### Event entries: " + eventsCount + " found.");
+		stats.addPhaseTime(EventCarListStats.phaseEventDecode, decodeTime);
+		if (consumerPhase != null) {
+			stats.addPhaseTime(consumerPhase, consumerTime);
+		}
+		stats.addDecodedEntries(eventsCount, carsCount, partUnlocksCount);
+		return eventsCount;
+	}
+	
+	// Decodes events from firstEvent until lastEvent (exclusive) into eventsArray, which starts with arrayStart event.
+	// Only absolute reads are done on datBuffer, so it's shared between the tasks
+	private class DecodeEventsTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ByteBuffer datBuffer;
+		private final DatIndexObject datIndex;
+		private final EventEntryObject[] eventsArray;
+		private final int arrayStart;
+		private final int firstEvent;
+		private final int lastEvent;
+		
+		DecodeEventsTask(ByteBuffer datBuffer, DatIndexObject datIndex, EventEntryObject[] eventsArray, 
+				int arrayStart, int firstEvent, int lastEvent) {
+			this.datBuffer = datBuffer;
+			this.datIndex = datIndex;
+			this.eventsArray = eventsArray;
+			this.arrayStart = arrayStart;
+			this.firstEvent = firstEvent;
+			this.lastEvent = lastEvent;
+		}
+		
+		@Override
+		protected void compute() {
+			if (lastEvent - firstEvent <= parallelTaskSize) {
+				for (int i = firstEvent; i < lastEvent; i++) {
+					eventsArray[i - arrayStart] = readIndexedEvent(datBuffer, datIndex, i);
+				}
+				return;
 			}
-			
-			// Get PartUnlock arrays on the end of Event array
-			boolean isArraysEnded = false;
-			while (!isArraysEnded) {
-				if (Arrays.equals(Arrays.copyOfRange(datArray, curPos, curPos + indexEndByteArray.length), indexEndByteArray) ||
-						Arrays.equals(Arrays.copyOfRange(datArray, curPos, curPos + entryHeaderSize), eventHeaderArray)) {
-					isArraysEnded = true; // PartUnlock arrays has been ended
-				} else {
-					partUnlockIdsList.add(Arrays.copyOfRange(datArray, curPos, curPos + byteSmallArraySize));
-					changeCurPos(curPos, byteSmallArraySize); // Note: sometimes cars can refer to arrays while skipping some of them
-				} // and game uses two arrays, pointed one and the next one
-			}
-			eventObj.setPartUnlockIdsList(partUnlockIdsList);
-			eventObj.setCarEntriesList(carEntriesList);
-			eventsList.add(eventObj);
-			System.out.println("### Event ID: " + hexToString(eventObj.getEventId()) + ", cars count: " + carEntriesList.size());
-		}
-		System.out.println("### Event entries: " + eventsList.size() + " found.");
-		writeJsonOutput(eventsList, outputName);
-	}
-	
-	public void writeJsonOutput(List<EventEntryObject> eventsList, String outputName) 
-			throws JsonIOException, IOException {
-		GsonBuilder builder = new GsonBuilder().disableHtmlEscaping();
-        Gson gson = builder.setPrettyPrinting().create();
-        
-        List<EventJsonObject> eventObjList = new ArrayList<>();
-		for (EventEntryObject eventByteObj : eventsList) {
-			EventJsonObject eventJsonObj = new EventJsonObject();
-			eventJsonObj.setEventId(hexToString(eventByteObj.getEventId()));
-			
-			List<String> partUnlockIdsList = new ArrayList<>();
-			for (byte[] partUnlockArray : eventByteObj.getPartUnlockIdsList()) {
-				partUnlockIdsList.add(hexToString(partUnlockArray));
+			int middleEvent = (firstEvent + lastEvent) >>> 1;
+			invokeAll(new DecodeEventsTask(datBuffer, datIndex, eventsArray, arrayStart, firstEvent, middleEvent),
+					new DecodeEventsTask(datBuffer, datIndex, eventsArray, arrayStart, middleEvent, lastEvent));
+		}
+	}
+	
+	// Decodes the event on eventPos. PartUnlock arrays are going until eventEnd, 
+	// or until the next entry header if it's not known (-1)
+	private EventEntryObject readEventBytes(ByteBuffer datBuffer, int eventPos, int eventEnd) {
+		return eventSchema.readRecord(datBuffer, eventPos, eventEnd);
+	}
+	
+	private static int getEventSize(EventEntryObject eventObj) {
+		return eventSchema.getRecordSize(eventObj.getCarEntriesList().size(), eventObj.getPartUnlockIds().length);
+	}
+	
+	// Header offsets table goes into EventId index, so any event can be decoded without the others
+	public DatIndexObject readDatIndex(ByteBuffer datBuffer) {
+		datBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		DatIndexObject datIndex = new DatIndexObject();
+		int curPos = datHeaderSize;
+		while (true) {
+			if (curPos + byteArraySize > datBuffer.limit()) {
+				throw new IndexOutOfBoundsException("Broken .dat file: event offsets table has no end");
 			}
-			eventJsonObj.setPartUnlockIdsList(partUnlockIdsList);
-			
-			List<CarJsonObject> carJsonList = new ArrayList<>();
-			for (CarEntryObject carEntry : eventByteObj.getCarEntriesList()) {
-				CarJsonObject carJson = new CarJsonObject();
-				carJson.setCarId(hexToString(carEntry.getCarId()));
-				carJson.setUnknownArray1(hexToString(carEntry.getUnknownArray1()));
-				carJson.setPartUnlockTypeIndex(carEntry.getPartUnlockTypeIndex());
-				carJson.setTheFFArray(hexToString(carEntry.getTheFFArray()));
-				carJson.setPartsAmountId(hexToString(carEntry.getPartsAmountId()));
-				carJson.setDifficultyId(hexToString(carEntry.getDifficultyId()));
-				carJsonList.add(carJson);
-			}
-			eventJsonObj.setCarsList(carJsonList);
-			eventObjList.add(eventJsonObj);
-		}
-		FileWriter writer = new FileWriter(outputName + ".json");
-		gson.toJson(eventObjList, writer);
-		writer.flush(); writer.close();
+			int eventPos = datBuffer.getInt(curPos);
+			if (eventPos == 0) break;
+			if (eventPos < datHeaderSize || eventPos > datBuffer.limit() - eventEntrySize) {
+				throw new IndexOutOfBoundsException("Broken .dat file: event offset " + datIndex.getEventsCount() 
+						+ " points out of the file, 0x" + Integer.toHexString(eventPos));
+			}
+			datIndex.addEvent(datBuffer.getInt(eventPos + entryHeaderSize), eventPos);
+			curPos += byteArraySize;
+		}
+		return datIndex;
+	}
+	
+	// Event ends where the next one starts, last event ends with the bottom index
+	public EventEntryObject readIndexedEvent(ByteBuffer datBuffer, DatIndexObject datIndex, int eventIndex) {
+		int eventEnd = eventIndex + 1 < datIndex.getEventsCount() ? datIndex.getEventPos(eventIndex + 1) : -1;
+		checkEventBounds(datBuffer, datIndex.getEventPos(eventIndex), eventEnd, eventIndex);
+		return readEventBytes(datBuffer, datIndex.getEventPos(eventIndex), eventEnd);
+	}
+	
+	public void extractEvents(String filePath, String outputName, List<String> eventIdsList, boolean isCompactJson) 
+			throws IOException {
+		int extractedCount = 0;
+		try (FileChannel datChannel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+				JsonWriter jsonWriter = createJsonWriter(outputName, isCompactJson)) {
+			ByteBuffer datBuffer = mapDatFile(datChannel, filePath);
+			DatIndexObject datIndex = readDatIndex(datBuffer);
+			jsonWriter.beginArray();
+			for (String eventIdStr : eventIdsList) {
+				int eventIndex = findListedEvent(datIndex, eventIdStr);
+				if (eventIndex == -1) {
+					System.out.println("### Event ID: " + eventIdStr + " is not found.");
+					continue;
+				}
+				jsonOutputAdapter.write(jsonWriter, readIndexedEvent(datBuffer, datIndex, eventIndex));
+				extractedCount++;
+			}
+			jsonWriter.endArray();
+		}
+		System.out.println("### " + extractedCount + " of " + eventIdsList.size() + " events has been extracted!");
+	}
+	
+	// Event ID could be hex or the event name, unknown names are not found too
+	private static int findListedEvent(DatIndexObject datIndex, String eventIdStr) {
+		try {
+			return datIndex.findEvent(EventCarListNames.resolveEventId(eventIdStr));
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+	
+	// Event IDs from the lines like "95 03 16 00 - Cold Burn, Circuit" (docs/EventIDs.txt)
+	public static List<String> readEventIdsList(String listPath) throws IOException {
+		return readEventIdsList(listPath, null);
+	}
+	
+	// Only the lines with lineMatch text, like "Circuit", if it's set
+	public static List<String> readEventIdsList(String listPath, String lineMatch) throws IOException {
+		List<String> eventIdsList = new ArrayList<>();
+		for (String line : Files.readAllLines(Paths.get(listPath), StandardCharsets.UTF_8)) {
+			Matcher matcher = eventIdLinePattern.matcher(line);
+			if (matcher.find() && (lineMatch == null || line.contains(lineMatch))) {
+				eventIdsList.add(matcher.group(1).replace(" ", ""));
+			}
+		}
+		return eventIdsList;
+	}
+	
+	public void writeJsonOutput(List<EventEntryObject> eventsList, String outputName) throws IOException {
+		writeJsonOutput(eventsList, outputName, false);
+	}
+	
+	public void writeJsonOutput(List<EventEntryObject> eventsList, String outputName, boolean isCompactJson) 
+			throws IOException {
+		long startTime = System.nanoTime();
+		try (JsonWriter jsonWriter = createJsonWriter(outputName, isCompactJson)) {
+			jsonWriter.beginArray();
+			for (EventEntryObject eventByteObj : eventsList) {
+				jsonOutputAdapter.write(jsonWriter, eventByteObj);
+			}
+			jsonWriter.endArray();
+		}
+		stats.addPhaseTime(EventCarListStats.phaseJsonWrite, System.nanoTime() - startTime);
+		stats.addBytesWritten(Files.size(Paths.get(outputName + ".json")));
 		System.out.println("### .dat-file has been unpacked!");
 	}
 	
+	// UTF-8 is used here, so the output is the same on any system
+	private JsonWriter createJsonWriter(String outputName, boolean isCompactJson) throws IOException {
+		JsonWriter jsonWriter = new JsonWriter(
+				Files.newBufferedWriter(Paths.get(outputName + ".json"), StandardCharsets.UTF_8));
+		jsonWriter.setHtmlSafe(false);
+		if (!isCompactJson) {
+			jsonWriter.setIndent("  "); // Same look as Gson pretty printing
+		}
+		return jsonWriter;
+	}
+	
 	//
 	// dat-file write
 	//
 	
 	public void writeDatFileOutput(String jsonPath, String outputName) throws IOException {
-	    Reader reader = Files.newBufferedReader(Paths.get(jsonPath + ".json"), Charset.forName(textEncoding));
-	    List<EventJsonObject> jsonObjList = new Gson().fromJson(reader, new TypeToken<List<EventJsonObject>>(){}.getType());
-	    reader.close();
-	    System.out.println("### Event JSON entries: " + jsonObjList.size() + " found.");
-	    
-	    // Prepare file Header + amount of event entries
-	    List<byte[]> datHeaderBytes = new ArrayList<>(); // 1
-	    datHeaderBytes.add(datHeaderArray); datHeaderBytes.add(intToByteArrayLE(jsonObjList.size(), byteArraySize));
-	    // Skip header event offsets
-	    changeCurPos(curPos, (datHeaderArray.length + byteArraySize) + (jsonObjList.size() * byteArraySize));
-	    
-	    List<Integer> headerCurPosIdArray = new ArrayList<>(); // Header event offsets    
-	    List<BottomIndexObject> bottomIndexObjList = new ArrayList<>(); // Bottom index events & cars offsets
-	    
-	    List<EventEntryObject> eventObjList = new ArrayList<>();
-	    for (EventJsonObject eventJsonObj : jsonObjList) {
-	    	EventEntryObject eventHexObj = new EventEntryObject();
-	    	List<CarEntryObject> carsHexList = new ArrayList<>();
-	    	headerCurPosIdArray.add(curPos);
-	    	bottomIndexObjList.add(new BottomIndexObject(
-		    		"event", intToByteArrayLE(curPos, byteArraySize)));
-	    	//
-	    	eventHexObj.setHeader(eventHeaderArray);
-	    	changeCurPos(curPos, eventHeaderArray.length);
-	    	//
-	    	eventHexObj.setEventId(decodeHexStr(eventJsonObj.getEventId()));
-	    	changeCurPos(curPos, byteArraySize * 2); // Skip CarEntriesOffset
-	    	//
-	    	eventHexObj.setCarEntriesCount(intToByteArrayLE(eventJsonObj.getCarsList().size(), byteArraySize));
-	    	changeCurPos(curPos, byteArraySize);
-	    	//
-	    	eventHexObj.setCarEntriesOffset(intToByteArrayLE(curPos, byteArraySize));
-
-	    	for (CarJsonObject carJsonObj : eventJsonObj.getCarsList()) {
-	    		CarEntryObject carHexObj = new CarEntryObject();
-	    		bottomIndexObjList.add(new BottomIndexObject(
-	    	    		"car", intToByteArrayLE(curPos, byteArraySize))); // Cars & Events is saved on bottom index array
-	    		carHexObj.setHeader(carHeaderArray);
-	    		changeCurPos(curPos, carHeaderArray.length);
-	    		//
-	    		carHexObj.setCarId(decodeHexStr(carJsonObj.getCarId()));
-	    		changeCurPos(curPos, byteArraySize);
-	    		//
-	    		carHexObj.setUnknownArray1(decodeHexStr(carJsonObj.getUnknownArray1()));
-	    		changeCurPos(curPos, byteArraySize * 2); // Skip UnknownCarArrayOffset
-	    		//
-	    		carHexObj.setPartUnlockTypeIndex(carJsonObj.getPartUnlockTypeIndex());
-	    		//
-	    		carHexObj.setTheFFArray(decodeHexStr(carJsonObj.getTheFFArray()));
-	    		changeCurPos(curPos, entryHeaderSize);
-	    		//
-	    		carHexObj.setPartsAmountId(decodeHexStr(carJsonObj.getPartsAmountId()));
-	    		changeCurPos(curPos, byteArraySize);
-	    		//
-	    		carHexObj.setDifficultyId(decodeHexStr(carJsonObj.getDifficultyId()));
-	    		changeCurPos(curPos, byteArraySize);
-	    		carsHexList.add(carHexObj);
-	    		System.out.println("### Event CAR ID: " + carJsonObj.getCarId());
-	    	}
-	    	eventHexObj.setCarEntriesList(carsHexList);
-	    	
-	    	// Collect all PartUnlock arrays of event
-	    	List<byte[]> partUnlockArrayList = new ArrayList<>();
-	    	List<Integer> curPosIdArray = new ArrayList<>();
-	    	for (String arrayStr : eventJsonObj.getPartUnlockIdsList()) {
-	    		curPosIdArray.add(curPos);
-	    		partUnlockArrayList.add(decodeHexStr(arrayStr));
-	    		changeCurPos(curPos, byteSmallArraySize);
-	    	}
-	    	eventHexObj.setPartUnlockIdsList(partUnlockArrayList);
-	    	
-	    	// Apply PartUnlockType offsets for car entries
-	    	for (CarEntryObject carHex : carsHexList) {
-	    		if (!eventHexObj.getPartUnlockIdsList().isEmpty()) {
-	    			carHex.setPartUnlockOffset(intToByteArrayLE(curPosIdArray.get(
-		    				carHex.getPartUnlockTypeIndex()), byteArraySize));
-	    		} else { // If event doesn't have any of PartUnlockType arrays
-	    			carHex.setPartUnlockOffset(emptyByteArray);
-	    		}
-	    	}
-	    	eventObjList.add(eventHexObj);
-	    	System.out.println("### Event ID: " + eventJsonObj.getEventId());
-	    }
-	    
-	    // Fill the header event offsets
-	    for (int offsetInt : headerCurPosIdArray) {	    	
-	    	datHeaderBytes.add(intToByteArrayLE(offsetInt, byteArraySize));
-	    }
-	    
-	    List<byte[]> eventObjBytes = new ArrayList<>(); // 2
-	    for (EventEntryObject eventHexObj : eventObjList) {
-	    	eventObjBytes.add(eventHexObj.getHeader());
-	    	eventObjBytes.add(eventHexObj.getEventId());
-	    	eventObjBytes.add(eventHexObj.getCarEntriesOffset());
-	    	eventObjBytes.add(eventHexObj.getCarEntriesCount());
-	    	for (CarEntryObject carHexObj : eventHexObj.getCarEntriesList()) {
-	    		eventObjBytes.add(carHexObj.getHeader());
-	    		eventObjBytes.add(carHexObj.getCarId());
-	    		eventObjBytes.add(carHexObj.getUnknownArray1());
-	    		eventObjBytes.add(carHexObj.getPartUnlockOffset());
-	    		eventObjBytes.add(carHexObj.getTheFFArray());
-	    		eventObjBytes.add(carHexObj.getPartsAmountId());
-	    		eventObjBytes.add(carHexObj.getDifficultyId());
-	    	}
-	    	if (!eventHexObj.getPartUnlockIdsList().isEmpty()) {
-	    		eventObjBytes.add(flatByteList(eventHexObj.getPartUnlockIdsList()));
-	    	}
-	    }
-	    
-	    List<byte[]> bottomIndexBytes = new ArrayList<>(); // 3
-	    bottomIndexBytes.add(indexEndByteArray); // Bottom index header
-	    for (BottomIndexObject bottomObj : bottomIndexObjList) {
-	    	// System.out.println("### test " + bottomObj.getEntryType() + ", offset: " + hexToString(bottomObj.getOffset()));
-	    	bottomIndexBytes.add(bottomObj.getEntryType().contentEquals("event") ? 
-	    			eventBottomHeaderArray : carBottomHeaderArray);
-	    	
-	    	byte[] offsetBytes = bottomObj.getOffset();
-	    	System.arraycopy(eighteenByte, 3, offsetBytes, 3, 1);
-	    	bottomIndexBytes.add(offsetBytes); // XX XX XX 80 for all offsets	    	
-	    	bottomIndexBytes.add(emptyByteArray);
-	    }
-	    
-	    // Save the new .dat file
-	    ByteArrayOutputStream fileOutputStream = new ByteArrayOutputStream();
-	    for (byte[] data : datHeaderBytes) {fileOutputStream.write(data);}
-	    for (byte[] data : eventObjBytes) {fileOutputStream.write(data);}
-	    for (byte[] data : bottomIndexBytes) {fileOutputStream.write(data);}
-	    try (FileOutputStream out = new FileOutputStream(outputName)) {
-	        out.write(fileOutputStream.toByteArray());
-	    }
-	    System.out.println("### .dat-file has been repacked!");
+		Path jsonFile = Paths.get(jsonPath + ".json");
+		
+		// First pass: only count events, cars and PartUnlock arrays, so all offsets are known before writing
+		DatLayoutObject datLayout = readJsonLayout(jsonFile);
+		System.out.println("### Event JSON entries: " + datLayout.getEventsCount() + " found.");
+		
+		// Second pass: each event is encoded right after it has been read
+		ByteBuffer datBuffer;
+		try (JsonReader jsonReader = createJsonReader(jsonFile)) {
+			jsonReader.beginArray();
+			datBuffer = writeDatBuffer(datLayout, eventIndex -> readLayoutEventJson(jsonReader, datLayout, eventIndex), 
+					EventCarListStats.phaseJsonRead);
+		}
+		writeDatOutputFile(outputName, datBuffer);
+		System.out.println("### .dat-file has been repacked!");
+	}
+	
+	public void writeDatFileOutput(List<EventEntryObject> eventsList, String outputName) throws IOException {
+		ByteBuffer datBuffer = writeDatBuffer(getEventsLayout(eventsList), eventsList::get, null);
+		writeDatOutputFile(outputName, datBuffer);
+		System.out.println("### .dat-file has been repacked!");
+	}
+	
+	// Events from .dat file, or from JSON file (name could be with or without .json)
+	public List<EventEntryObject> readEventsFile(String filePath) throws IOException {
+		List<EventEntryObject> eventsList = new ArrayList<>();
+		readEventsFile(filePath, eventsList::add);
+		return eventsList;
+	}
+	
+	public void readEventsFile(String filePath, EventEntryConsumer eventConsumer) throws IOException {
+		if (filePath.toLowerCase().endsWith(".dat") || EventCarListBundle.isBundleFile(filePath)) {
+			try (FileChannel datChannel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+				readDatBuffer(mapDatFile(datChannel, filePath), eventConsumer);
+			}
+			return;
+		}
+		Path jsonFile = Paths.get(filePath.toLowerCase().endsWith(".json") ? filePath : filePath + ".json");
+		long startTime = System.nanoTime();
+		stats.addBytesRead(Files.size(jsonFile));
+		try (JsonReader jsonReader = createJsonReader(jsonFile)) {
+			jsonReader.beginArray();
+			while (jsonReader.hasNext()) {
+				eventConsumer.accept(eventJsonAdapter.read(jsonReader));
+			}
+			jsonReader.endArray();
+		}
+		stats.addPhaseTime(EventCarListStats.phaseJsonRead, System.nanoTime() - startTime);
+	}
+	
+	// Encodes all events into one buffer of the exact file size, time of the supplier goes into supplierPhase of stats
+	private ByteBuffer writeDatBuffer(DatLayoutObject datLayout, EventEntrySupplier eventSupplier, String supplierPhase) 
+			throws IOException {
+		long startTime = System.nanoTime();
+		long supplierTime = 0;
+		ByteBuffer datBuffer = ByteBuffer.allocate(datLayout.getFileSize()).order(ByteOrder.LITTLE_ENDIAN);
+		writeDatHeaderBytes(datBuffer, datLayout);
+		int eventPos = datLayout.getEventsStart();
+		int partUnlocksCount = 0;
+		for (int i = 0; i < datLayout.getEventsCount(); i++) {
+			long eventStartTime = System.nanoTime();
+			EventEntryObject eventObj = eventSupplier.get(i);
+			long eventReadTime = System.nanoTime();
+			writeEventBytes(datBuffer, eventObj, eventPos);
+			eventPos += datLayout.getEventSize(i);
+			partUnlocksCount += eventObj.getPartUnlockIds().length;
+			supplierTime += eventReadTime - eventStartTime;
+			if (isVerbose) {
+				System.out.println("### Event ID: " + intToHexString(eventObj.getEventId(), byteArraySize));
+			}
+		}
+		writeBottomIndexBytes(datBuffer, datLayout);
+		datBuffer.flip();
+		stats.addPhaseTime(EventCarListStats.phaseEncode, System.nanoTime() - startTime - supplierTime);
+		if (supplierPhase != null) {
+			stats.addPhaseTime(supplierPhase, supplierTime);
+		}
+		stats.addEncodedEntries(datLayout.getEventsCount(), datLayout.getTotalCarsCount(), partUnlocksCount);
+		return datBuffer;
+	}
+	
+	// Unpack and repack in memory, without any files written, and compare the result with original file
+	public boolean verifyDatFile(String filePath) throws IOException {
+		try (FileChannel datChannel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			ByteBuffer origBuffer = mapDatFile(datChannel, filePath);
+			List<EventEntryObject> eventsList;
+			DatLayoutObject datLayout;
+			ByteBuffer datBuffer;
+			try { // Broken file is the failed verify, as well as the different bytes
+				eventsList = readDatBuffer(origBuffer);
+				datLayout = getEventsLayout(eventsList);
+				datBuffer = writeDatBuffer(datLayout, eventsList::get, null);
+			} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+				System.out.println("### Verify failed: " + e.getMessage() + ".");
+				return false;
+			}
+			
+			origBuffer.clear();
+			int mismatchPos = origBuffer.mismatch(datBuffer);
+			if (mismatchPos == -1) {
+				System.out.println("### Verify passed: " + datBuffer.limit() + " bytes are the same.");
+				return true;
+			}
+			if (mismatchPos == Math.min(origBuffer.limit(), datBuffer.limit())) {
+				System.out.println("### Verify failed: file size is different, original " + origBuffer.limit() 
+						+ " bytes, repacked " + datBuffer.limit() + " bytes.");
+			} else {
+				System.out.println("### Verify failed: first different byte at 0x" + Integer.toHexString(mismatchPos)
+						+ ", " + describeDatOffset(datLayout, eventsList, mismatchPos) + ".");
+			}
+			return false;
+		}
+	}
+	
+	// Finds the entry and field name for the offset of .dat file
+	private String describeDatOffset(DatLayoutObject datLayout, List<EventEntryObject> eventsList, int offset) {
+		if (offset < datHeaderArray.length) return "file header";
+		if (offset < datHeaderSize) return "event entries count";
+		if (offset < datLayout.getEventsStart()) {
+			return "event offsets table, entry " + (offset - datHeaderSize) / byteArraySize;
+		}
+		if (offset < datLayout.getBottomIndexStart()) {
+			int eventPos = datLayout.getEventsStart();
+			int eventIndex = 0;
+			while (offset >= eventPos + datLayout.getEventSize(eventIndex)) {
+				eventPos += datLayout.getEventSize(eventIndex);
+				eventIndex++;
+			}
+			EventEntryObject eventObj = eventsList.get(eventIndex);
+			String eventDesc = "event " + eventIndex + " (EventId " + intToHexString(eventObj.getEventId(), byteArraySize) + ")";
+			int entryPos = offset - eventPos;
+			if (entryPos < eventEntrySize) {
+				return eventDesc + ", " + eventSchema.getFieldName(entryPos);
+			}
+			entryPos -= eventEntrySize;
+			int carIndex = entryPos / carEntrySize;
+			if (carIndex < datLayout.getCarsCount(eventIndex)) {
+				return eventDesc + ", car " + carIndex + " (CarId " 
+						+ intToHexString(eventObj.getCarEntriesList().get(carIndex).getCarId(), byteArraySize) + "), " 
+						+ carSchema.getFieldName(entryPos % carEntrySize);
+			}
+			entryPos -= carEntrySize * datLayout.getCarsCount(eventIndex);
+			return eventDesc + ", PartUnlock ID " + entryPos / byteSmallArraySize;
+		}
+		int bottomPos = offset - datLayout.getBottomIndexStart() - indexEndByteArray.length;
+		if (bottomPos < 0) return "bottom index header";
+		int bottomEntryIndex = bottomPos / bottomEntrySize;
+		for (int i = 0; i < datLayout.getEventsCount(); i++) {
+			if (bottomEntryIndex == 0) return "bottom index, event " + i;
+			if (bottomEntryIndex <= datLayout.getCarsCount(i)) {
+				return "bottom index, event " + i + ", car " + (bottomEntryIndex - 1);
+			}
+			bottomEntryIndex -= datLayout.getCarsCount(i) + 1;
+		}
+		return "end of file";
+	}
+	
+	// Layout-preserving edits (same amount of events, cars and PartUnlock arrays) don't move any offsets,
+	// so only changed bytes are written into the .dat file. Otherwise, full repack is done
+	public void patchDatFile(String datPath, String jsonPath, String outputName) throws IOException {
+		Path datFile = Paths.get(datPath);
+		Path jsonFile = Paths.get(jsonPath + ".json");
+		Path outputFile = Paths.get(outputName);
+		if (EventCarListBundle.isBundleFile(datPath)) { // Resource could be compressed, so it's replaced as a whole
+			if (EventCarListBundle.isBundleFile(outputName) 
+					&& (!Files.exists(outputFile) || !Files.isSameFile(datFile, outputFile))) {
+				Files.copy(datFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+			writeDatFileOutput(jsonPath, outputName);
+			return;
+		}
+		
+		long startTime = System.nanoTime();
+		ByteBuffer origBuffer = ByteBuffer.wrap(Files.readAllBytes(datFile));
+		stats.addPhaseTime(EventCarListStats.phaseRead, System.nanoTime() - startTime);
+		stats.addBytesRead(origBuffer.limit());
+		DatLayoutObject origLayout = new DatLayoutObject();
+		readDatBuffer(origBuffer, eventObj -> origLayout.addEvent(
+				eventObj.getCarEntriesList().size(), eventObj.getPartUnlockIds().length));
+		DatLayoutObject datLayout = readJsonLayout(jsonFile);
+		if (!datLayout.isSameLayout(origLayout) || datLayout.getFileSize() != origBuffer.limit()) {
+			System.out.println("### Layout of events has been changed, full repack is required.");
+			writeDatFileOutput(jsonPath, outputName);
+			return;
+		}
+		
+		if (!Files.exists(outputFile) || !Files.isSameFile(datFile, outputFile)) {
+			Files.copy(datFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+		int changedBytesCount = 0;
+		try (JsonReader jsonReader = createJsonReader(jsonFile);
+				FileChannel outChannel = FileChannel.open(outputFile, StandardOpenOption.WRITE)) {
+			ByteBuffer eventBuffer = ByteBuffer.allocate(0);
+			jsonReader.beginArray();
+			int eventPos = datLayout.getEventsStart();
+			for (int i = 0; i < datLayout.getEventsCount(); i++) {
+				long eventStartTime = System.nanoTime();
+				EventEntryObject eventObj = readLayoutEventJson(jsonReader, datLayout, i);
+				long eventReadTime = System.nanoTime();
+				eventBuffer = getBuffer(eventBuffer, datLayout.getEventSize(i));
+				writeEventBytes(eventBuffer, eventObj, eventPos);
+				eventBuffer.flip();
+				long eventEncodedTime = System.nanoTime();
+				changedBytesCount += writeChangedBytes(outChannel, eventBuffer, origBuffer.array(), eventPos);
+				eventPos += datLayout.getEventSize(i);
+				stats.addPhaseTime(EventCarListStats.phaseJsonRead, eventReadTime - eventStartTime);
+				stats.addPhaseTime(EventCarListStats.phaseEncode, eventEncodedTime - eventReadTime);
+				stats.addPhaseTime(EventCarListStats.phaseFileWrite, System.nanoTime() - eventEncodedTime);
+			}
+		}
+		stats.addBytesWritten(changedBytesCount);
+		System.out.println("### .dat-file has been patched, " + changedBytesCount + " bytes changed.");
+	}
+	
+	// Events are decoded from the copy of .dat file one by one, and the changed ones are encoded back on the same offsets.
+	// Editor must keep the amount of cars and PartUnlock IDs, otherwise the full repack is needed
+	public int editDatFileInPlace(String filePath, String outputName, EventEntryEditor eventEditor) throws IOException {
+		ByteBuffer datBuffer;
+		try (FileChannel datChannel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			ByteBuffer fileBuffer = mapDatFile(datChannel, filePath);
+			datBuffer = ByteBuffer.allocate(fileBuffer.limit()).order(ByteOrder.LITTLE_ENDIAN);
+			datBuffer.put(fileBuffer.duplicate().clear()).clear();
+		}
+		long startTime = System.nanoTime();
+		DatIndexObject datIndex = readDatIndex(datBuffer);
+		stats.addPhaseTime(EventCarListStats.phaseOffsetScan, System.nanoTime() - startTime);
+		int changedCount = 0;
+		int totalCarsCount = 0;
+		int totalPartUnlocksCount = 0;
+		long decodeTime = 0;
+		long encodeTime = 0;
+		EventCarListValidator validator = new EventCarListValidator(new DatLayoutObject());
+		for (int i = 0; i < datIndex.getEventsCount(); i++) {
+			long eventStartTime = System.nanoTime();
+			EventEntryObject eventObj = readIndexedEvent(datBuffer, datIndex, i);
+			int carsCount = eventObj.getCarEntriesList().size();
+			int partUnlocksCount = eventObj.getPartUnlockIds().length;
+			decodeTime += System.nanoTime() - eventStartTime;
+			totalCarsCount += carsCount;
+			totalPartUnlocksCount += partUnlocksCount;
+			if (!eventEditor.edit(eventObj)) continue;
+			if (eventObj.getCarEntriesList().size() != carsCount || eventObj.getPartUnlockIds().length != partUnlocksCount) {
+				throw new IOException("Layout of event " + intToHexString(eventObj.getEventId(), byteArraySize) 
+						+ " has been changed, it can't be edited in place.");
+			}
+			int errorsCount = validator.getErrorsList().size();
+			validator.validateEventEntries(eventObj, "$[" + i + "]");
+			if (validator.getErrorsList().size() != errorsCount) continue; // Nothing is written, errors go below
+			long eventEncodeTime = System.nanoTime();
+			datBuffer.position(datIndex.getEventPos(i));
+			writeEventBytes(datBuffer, eventObj, datIndex.getEventPos(i));
+			encodeTime += System.nanoTime() - eventEncodeTime;
+			changedCount++;
+		}
+		if (!validator.isValid()) {
+			printValidationErrors(validator.getErrorsList());
+			throw new IOException("Edited events have " + validator.getErrorsList().size() 
+					+ " errors, nothing has been written.");
+		}
+		datBuffer.clear();
+		stats.addPhaseTime(EventCarListStats.phaseEventDecode, decodeTime);
+		stats.addPhaseTime(EventCarListStats.phaseEncode, encodeTime);
+		stats.addDecodedEntries(datIndex.getEventsCount(), totalCarsCount, totalPartUnlocksCount);
+		writeDatOutputFile(outputName, datBuffer);
+		return changedCount;
+	}
+	
+	// Compares the new data with original file bytes, and writes only the different byte ranges
+	private int writeChangedBytes(FileChannel outChannel, ByteBuffer newBuffer, byte[] origArray, int filePos) 
+			throws IOException {
+		byte[] newArray = newBuffer.array();
+		int size = newBuffer.limit();
+		int changedBytesCount = 0;
+		int curPos = 0;
+		while (curPos < size) {
+			int mismatchPos = Arrays.mismatch(newArray, curPos, size, origArray, filePos + curPos, filePos + size);
+			if (mismatchPos == -1) break;
+			int changeStart = curPos + mismatchPos;
+			int changeEnd = changeStart + 1;
+			while (changeEnd < size && newArray[changeEnd] != origArray[filePos + changeEnd]) {
+				changeEnd++;
+			}
+			ByteBuffer changedBytes = ByteBuffer.wrap(newArray, changeStart, changeEnd - changeStart);
+			while (changedBytes.hasRemaining()) {
+				outChannel.write(changedBytes, filePos + changedBytes.position());
+			}
+			changedBytesCount += changeEnd - changeStart;
+			curPos = changeEnd;
+		}
+		return changedBytesCount;
+	}
+	
+	// Data is saved to the temporary file first, and then it replaces the target file,
+	// so the broken repack will never leave a half-written .dat file
+	void writeFileAtomically(Path outputFile, ByteBuffer dataBuffer) throws IOException {
+		long startTime = System.nanoTime();
+		stats.addBytesWritten(dataBuffer.remaining());
+		Path tempFile = getTempFile(outputFile);
+		try {
+			try (FileChannel outChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE, 
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (dataBuffer.hasRemaining()) {
+					outChannel.write(dataBuffer);
+				}
+			}
+			try {
+				Files.move(tempFile, outputFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+			stats.addPhaseTime(EventCarListStats.phaseFileWrite, System.nanoTime() - startTime);
+		}
+	}
+	
+	// Temp name is unique for the process and thread, so writers of the same output don't share it.
+	// Files.createTempFile is not used, as it loads SecureRandom and takes a lot of the short run time
+	static Path getTempFile(Path outputFile) {
+		return outputFile.toAbsolutePath().resolveSibling(outputFile.getFileName() + "." 
+				+ ProcessHandle.current().pid() + "." + Thread.currentThread().getId() + ".tmp");
+	}
+	
+	public DatLayoutObject getEventsLayout(List<EventEntryObject> eventsList) {
+		DatLayoutObject datLayout = new DatLayoutObject();
+		for (EventEntryObject eventObj : eventsList) {
+			datLayout.addEvent(eventObj.getCarEntriesList().size(), eventObj.getPartUnlockIds().length);
+		}
+		return datLayout;
+	}
+	
+	// First pass is the validation, which counts the entries too. Nothing is written if JSON has any errors
+	DatLayoutObject readJsonLayout(Path jsonFile) throws IOException {
+		long startTime = System.nanoTime();
+		stats.addBytesRead(Files.size(jsonFile) * 2); // It's read twice, for layout and for events
+		DatLayoutObject datLayout = new DatLayoutObject();
+		EventCarListValidator validator = new EventCarListValidator(datLayout);
+		try (JsonReader jsonReader = createJsonReader(jsonFile)) {
+			validator.validateEvents(jsonReader);
+		}
+		stats.addPhaseTime(EventCarListStats.phaseLayout, System.nanoTime() - startTime);
+		if (!validator.isValid()) {
+			printValidationErrors(validator.getErrorsList());
+			throw new IOException("JSON file has " + validator.getErrorsList().size() + " errors, nothing has been written.");
+		}
+		return datLayout;
+	}
+	
+	public boolean validateJsonFile(String jsonPath) throws IOException {
+		DatLayoutObject datLayout = new DatLayoutObject();
+		EventCarListValidator validator = new EventCarListValidator(datLayout);
+		try (JsonReader jsonReader = createJsonReader(Paths.get(jsonPath + ".json"))) {
+			validator.validateEvents(jsonReader);
+		}
+		if (!validator.isValid()) {
+			printValidationErrors(validator.getErrorsList());
+			System.out.println("### Validation failed: " + validator.getErrorsList().size() + " errors.");
+			return false;
+		}
+		System.out.println("### Validation passed: " + datLayout.getEventsCount() + " events, " 
+				+ datLayout.getTotalCarsCount() + " cars.");
+		return true;
+	}
+	
+	// Decoded events (merge, serve) are checked as JSON on repack, nothing should be written if they have errors
+	public void validateEventsList(List<EventEntryObject> eventsList) throws IOException {
+		EventCarListValidator validator = new EventCarListValidator(new DatLayoutObject());
+		validator.validateEventsList(eventsList);
+		if (!validator.isValid()) {
+			printValidationErrors(validator.getErrorsList());
+			throw new IOException("Events have " + validator.getErrorsList().size() + " errors, nothing has been written.");
+		}
+	}
+	
+	private static void printValidationErrors(List<String> errorsList) {
+		for (String error : errorsList) {
+			System.out.println("### " + error);
+		}
+	}
+	
+	// Second pass reading, event must have the same amount of entries as on the first pass
+	private EventEntryObject readLayoutEventJson(JsonReader jsonReader, DatLayoutObject datLayout, int eventIndex) 
+			throws IOException {
+		EventEntryObject eventObj = eventJsonAdapter.read(jsonReader);
+		if (eventObj.getCarEntriesList().size() != datLayout.getCarsCount(eventIndex)
+				|| eventObj.getPartUnlockIds().length != datLayout.getPartUnlocksCount(eventIndex)) {
+			throw new IOException("JSON file has been changed during the repack, event: " 
+					+ intToHexString(eventObj.getEventId(), byteArraySize));
+		}
+		return eventObj;
+	}
+	
+	JsonReader createJsonReader(Path jsonFile) throws IOException {
+		return new JsonReader(Files.newBufferedReader(jsonFile, StandardCharsets.UTF_8));
+	}
+	
+	// File Header + amount of event entries + event offsets
+	void writeDatHeaderBytes(ByteBuffer byteBuffer, DatLayoutObject datLayout) {
+		byteBuffer.put(datHeaderArray);
+		byteBuffer.putInt(datLayout.getEventsCount());
+		int eventPos = datLayout.getEventsStart();
+		for (int i = 0; i < datLayout.getEventsCount(); i++) {
+			byteBuffer.putInt(eventPos);
+			eventPos += datLayout.getEventSize(i);
+		}
+	}
+	
+	// Encodes the event with its cars and PartUnlock arrays, eventPos is the event offset in the file
+	void writeEventBytes(ByteBuffer byteBuffer, EventEntryObject eventObj, int eventPos) {
+		try {
+			eventSchema.writeRecord(byteBuffer, eventPos, eventObj);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IndexOutOfBoundsException(e.getMessage() + " on event " 
+					+ intToHexString(eventObj.getEventId(), byteArraySize));
+		}
+	}
+	
+	// Offsets in the event are counted from the file start, so the moved event needs them to be shifted
+	static void shiftEventOffsets(ByteBuffer eventBuffer, int carsCount, int shift) {
+		eventSchema.shiftOffsets(eventBuffer, carsCount, shift);
+	}
+	
+	// Cars & Events is saved on bottom index array, as XX XX XX 80 offsets
+	void writeBottomIndexBytes(ByteBuffer byteBuffer, DatLayoutObject datLayout) {
+		byteBuffer.put(indexEndByteArray); // Bottom index header
+		int eventPos = datLayout.getEventsStart();
+		for (int i = 0; i < datLayout.getEventsCount(); i++) {
+			eventSchema.writeRelocations(byteBuffer, eventPos, datLayout.getCarsCount(i));
+			eventPos += datLayout.getEventSize(i);
+		}
+	}
+	
+	// Re-uses the buffer if it's big enough
+	private static ByteBuffer getBuffer(ByteBuffer byteBuffer, int size) {
+		if (byteBuffer.capacity() < size) {
+			return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		byteBuffer.clear();
+		return byteBuffer;
 	}
 	
 	//
-	// Utilities
+	// binary intermediate file
 	//
 	
-	private void changeCurPos(int origPos, int addition) {
-		curPos = origPos + addition;
-		//System.out.println("### curPos: " + curPos);
+	// Same data as JSON, but without any text: raw .dat values, with amount of entries before each array.
+	// Event: EventId, cars count, PartUnlock arrays count, cars, PartUnlock arrays
+	// Car: CarId, UnknownArray1, PartUnlockTypeIndex, TheFFArray, PartsAmountId, DifficultyId
+	
+	public void unpackDatFileBinary(String filePath, String outputName) throws IOException {
+		try (FileChannel datChannel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+				FileChannel binChannel = FileChannel.open(Paths.get(outputName + ".bin"), StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer datBuffer = mapDatFile(datChannel, filePath);
+			ByteBuffer binBuffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+			binBuffer.put(binaryHeaderArray).putInt(binaryFormatVersion);
+			readDatBuffer(datBuffer, eventObj -> writeEventBinary(binChannel, binBuffer, eventObj), 
+					EventCarListStats.phaseFileWrite);
+			writeFully(binChannel, binBuffer);
+			stats.addBytesWritten(binChannel.size());
+		}
+		System.out.println("### .dat-file has been unpacked!");
+	}
+	
+	public void writeDatFileOutputBinary(String binPath, String outputName) throws IOException {
+		ByteBuffer datBuffer;
+		try (FileChannel binChannel = FileChannel.open(Paths.get(binPath + ".bin"), StandardOpenOption.READ)) {
+			long startTime = System.nanoTime();
+			MappedByteBuffer binBuffer = binChannel.map(FileChannel.MapMode.READ_ONLY, 0, binChannel.size());
+			binBuffer.order(ByteOrder.LITTLE_ENDIAN);
+			stats.addBytesRead(binBuffer.limit());
+			DatLayoutObject datLayout = readBinaryLayout(binBuffer);
+			stats.addPhaseTime(EventCarListStats.phaseLayout, System.nanoTime() - startTime);
+			System.out.println("### Event binary entries: " + datLayout.getEventsCount() + " found.");
+			binBuffer.position(binaryHeaderArray.length + byteArraySize);
+			datBuffer = writeDatBuffer(datLayout, eventIndex -> readEventBinary(binBuffer), EventCarListStats.phaseRead);
+		}
+		writeDatOutputFile(outputName, datBuffer);
+		System.out.println("### .dat-file has been repacked!");
+	}
+	
+	// Events are collected in the buffer, which is written out when the next event doesn't fit
+	private void writeEventBinary(FileChannel binChannel, ByteBuffer binBuffer, EventEntryObject eventObj) 
+			throws IOException {
+		List<CarEntryObject> carEntriesList = eventObj.getCarEntriesList();
+		short[] partUnlockIds = eventObj.getPartUnlockIds();
+		int eventSize = byteArraySize * 3 + carEntriesList.size() * binaryCarEntrySize 
+				+ partUnlockIds.length * byteSmallArraySize;
+		if (binBuffer.remaining() < eventSize) {
+			writeFully(binChannel, binBuffer);
+		}
+		ByteBuffer eventBuffer = binBuffer.remaining() < eventSize ? 
+				ByteBuffer.allocate(eventSize).order(ByteOrder.LITTLE_ENDIAN) : binBuffer; // Too big event
+		eventBuffer.putInt(eventObj.getEventId());
+		eventBuffer.putInt(carEntriesList.size());
+		eventBuffer.putInt(partUnlockIds.length);
+		for (CarEntryObject carObj : carEntriesList) {
+			eventBuffer.putInt(carObj.getCarId());
+			eventBuffer.putInt(carObj.getUnknownArray1());
+			eventBuffer.putInt(carObj.getPartUnlockTypeIndex());
+			eventBuffer.put(carObj.getTheFFArray());
+			eventBuffer.putInt(carObj.getPartsAmountId());
+			eventBuffer.putInt(carObj.getDifficultyId());
+		}
+		for (short partUnlockId : partUnlockIds) {
+			eventBuffer.putShort(partUnlockId);
+		}
+		if (eventBuffer != binBuffer) {
+			writeFully(binChannel, eventBuffer);
+		}
+	}
+	
+	private static void writeFully(FileChannel outChannel, ByteBuffer dataBuffer) throws IOException {
+		dataBuffer.flip();
+		while (dataBuffer.hasRemaining()) {
+			outChannel.write(dataBuffer);
+		}
+		dataBuffer.clear();
+	}
+	
+	// All entries have fixed size, so the first pass only jumps over the events
+	private DatLayoutObject readBinaryLayout(ByteBuffer binBuffer) throws IOException {
+		if (!DatRecordSchema.isBytesEqual(binBuffer, 0, binaryHeaderArray) 
+				|| binBuffer.getInt(binaryHeaderArray.length) != binaryFormatVersion) {
+			throw new IOException("Unknown binary file format, version " + binaryFormatVersion + " is expected.");
+		}
+		DatLayoutObject datLayout = new DatLayoutObject();
+		EventCarListValidator validator = new EventCarListValidator(datLayout);
+		int curPos = binaryHeaderArray.length + byteArraySize;
+		while (curPos < binBuffer.limit()) {
+			String eventPath = "$[" + datLayout.getEventsCount() + "]";
+			if (curPos + byteArraySize * 3 > binBuffer.limit()) {
+				throw new IOException("Binary file is incomplete on " + eventPath + ".");
+			}
+			int carsCount = binBuffer.getInt(curPos + byteArraySize);
+			int partUnlocksCount = binBuffer.getInt(curPos + byteArraySize * 2);
+			long eventEnd = curPos + byteArraySize * 3 + (long) carsCount * binaryCarEntrySize 
+					+ (long) partUnlocksCount * byteSmallArraySize;
+			if (carsCount < 0 || partUnlocksCount < 0 || eventEnd > binBuffer.limit()) {
+				throw new IOException("Binary file is broken on " + eventPath + ": " + carsCount + " cars, " 
+						+ partUnlocksCount + " PartUnlock IDs.");
+			}
+			// Same checks as for JSON, counts over the limits would be cut in the .dat file
+			validator.checkCarsCount(eventPath, carsCount);
+			int carPos = curPos + byteArraySize * 3;
+			for (int i = 0; i < carsCount; i++) {
+				validator.checkPartUnlockTypeIndex(eventPath + ".Cars[" + i + "].PartUnlockTypeIndex", 
+						binBuffer.getInt(carPos + byteArraySize * 2), partUnlocksCount);
+				carPos += binaryCarEntrySize;
+			}
+			datLayout.addEvent(carsCount, partUnlocksCount);
+			curPos = (int) eventEnd;
+		}
+		validator.checkFileSize();
+		if (!validator.isValid()) {
+			printValidationErrors(validator.getErrorsList());
+			throw new IOException("Binary file has " + validator.getErrorsList().size() 
+					+ " errors, nothing has been written.");
+		}
+		return datLayout;
+	}
+	
+	private EventEntryObject readEventBinary(ByteBuffer binBuffer) {
+		EventEntryObject eventObj = new EventEntryObject();
+		eventObj.setEventId(binBuffer.getInt());
+		int carsCount = binBuffer.getInt();
+		int partUnlocksCount = binBuffer.getInt();
+		List<CarEntryObject> carEntriesList = new ArrayList<>(carsCount);
+		for (int i = 0; i < carsCount; i++) {
+			CarEntryObject carObj = new CarEntryObject();
+			carObj.setCarId(binBuffer.getInt());
+			carObj.setUnknownArray1(binBuffer.getInt());
+			carObj.setPartUnlockTypeIndex(binBuffer.getInt());
+			carObj.setTheFFArray(DatRecordSchema.readBytesField(binBuffer, binBuffer.position(), theFFArrayDefault));
+			binBuffer.position(binBuffer.position() + entryHeaderSize);
+			carObj.setPartsAmountId(binBuffer.getInt());
+			carObj.setDifficultyId(binBuffer.getInt());
+			carEntriesList.add(carObj);
+		}
+		short[] partUnlockIds = new short[partUnlocksCount];
+		for (int i = 0; i < partUnlocksCount; i++) {
+			partUnlockIds[i] = binBuffer.getShort();
+		}
+		eventObj.setCarEntriesList(carEntriesList);
+		eventObj.setPartUnlockIds(partUnlockIds);
+		return eventObj;
 	}
 	
+	//
+	// Utilities
+	//
+	
 	// Taken from StackOverflow (Dhaval Rami)
 	public static int byteArrayToInt(byte[] b) {
 	    final ByteBuffer bb = ByteBuffer.wrap(b);
@@ -348,25 +1061,44 @@ public class EventCarListEditor {
 		return data;
 	}
 	
-	private byte[] decodeHexStr(String str) {
+	// Hex string of the bytes as they are stored (little-endian): 0x00160395 -> "95031600"
+	static String intToHexString(int value, int size) {
+		byte[] hexChars = new byte[size * 2];
+		for (int j = 0; j < size; j++) {
+			int v = (value >>> (j * 8)) & 0xFF;
+			hexChars[j * 2] = HEX_ARRAY[v >>> 4];
+			hexChars[j * 2 + 1] = HEX_ARRAY[v & 0x0F];
+		}
+		return new String(hexChars, StandardCharsets.US_ASCII);
+	}
+	
+	// Reverse of intToHexString, "95031600" -> 0x00160395, "0100" -> 0x0001
+	static int decodeHexInt(String str) {
+		int value = 0;
+		for (int i = 0; i < str.length(); i += 2) {
+			value |= ((Character.digit(str.charAt(i), 16) << 4) + Character.digit(str.charAt(i+1), 16)) << (i * 4);
+		}
+		return value;
+	}
+	
+	// Decodes the hex string into the caller array
+	private static void decodeHexStr(String str, byte[] data) {
 		int len = str.length();
-		byte[] data = new byte[len / 2];
 		for (int i = 0; i < len; i += 2) {
 			data[i / 2] = (byte) ((Character.digit(str.charAt(i), 16) << 4)
 					+ Character.digit(str.charAt(i+1), 16));
 		}
-		return data;
 	}
 	
-	private byte[] intToByteArrayLE(int data, int size) {    
-		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN).putInt(data).array(); 
-	}
-	private byte[] intToByteArrayBE(int data, int size) {    
-		return ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN).putInt(data).array(); 
+	// Almost all cars have the same FF bytes, they are shared instead of the new array for each car
+	private static byte[] decodeFFArray(String str) {
+		byte[] data = new byte[str.length() / 2];
+		decodeHexStr(str, data);
+		return Arrays.equals(data, theFFArrayDefault) ? theFFArrayDefault : data;
 	}
 	
 	// Taken from StackOverflow (maybeWeCouldStealAVan)
-	private String hexToString(byte[] bytes) {
+	static String hexToString(byte[] bytes) {
 	    byte[] hexChars = new byte[bytes.length * 2];
 	    for (int j = 0; j < bytes.length; j++) {
 	        int v = bytes[j] & 0xFF;
@@ -376,57 +1108,231 @@ public class EventCarListEditor {
 	    return new String(hexChars, StandardCharsets.UTF_8);
 	}
 	
-	// Taken from StackOverflow (Nir Alfasi)
-	private static byte[] flatByteList(List<byte[]> list) {
-	    int byteArrlength = list.get(0).length;
-	    byte[] result = new byte[list.size() * byteArrlength]; // since all the arrays have the same size
-	    for (int i = 0; i < list.size(); i++) {
-	        byte[] arr = list.get(i);
-	        for (int j = 0; j < byteArrlength; j++) {
-	            result[i * byteArrlength + j] = arr[j];
-	        }
-	    }
-	    return result;
+	//
+	// JSON adapters
+	//
+	
+	// Shared Gson for other tools, it is built on first use only: unpack & repack call the adapters on JSON streams directly
+	static Gson getGson() {
+		return GsonHolder.gson;
+	}
+	
+	private static class GsonHolder {
+		static final Gson gson = new GsonBuilder()
+				.registerTypeAdapter(EventEntryObject.class, eventJsonAdapter)
+				.registerTypeAdapter(CarEntryObject.class, carJsonAdapter)
+				.disableHtmlEscaping().setPrettyPrinting().create();
+	}
+	
+	// Hand-written adapters, so no reflection is needed for the model.
+	// IDs are read as hex values or names, and written with the names only if namesMode is set
+	static class EventJsonAdapter extends TypeAdapter<EventEntryObject> {
+		private final EventCarListNames.NamesMode namesMode;
+		private final TypeAdapter<CarEntryObject> carAdapter;
+		
+		EventJsonAdapter() {
+			this.namesMode = EventCarListNames.NamesMode.NONE;
+			this.carAdapter = carJsonAdapter;
+		}
+		
+		EventJsonAdapter(EventCarListNames.NamesMode namesMode) {
+			this.namesMode = namesMode;
+			this.carAdapter = new CarJsonAdapter(namesMode);
+		}
+		
+		@Override
+		public void write(JsonWriter jsonWriter, EventEntryObject eventByteObj) throws IOException {
+			jsonWriter.beginObject();
+			writeIdValue(jsonWriter, "EventId", "EventName", eventByteObj.getEventId(), byteArraySize, namesMode, 
+					namesMode == EventCarListNames.NamesMode.NONE ? null : EventCarListNames.getNames().getEventNames());
+			jsonWriter.name("Cars").beginArray();
+			for (CarEntryObject carEntry : eventByteObj.getCarEntriesList()) {
+				carAdapter.write(jsonWriter, carEntry);
+			}
+			jsonWriter.endArray();
+			jsonWriter.name("PartUnlockIds").beginArray();
+			if (namesMode == EventCarListNames.NamesMode.ONLY) {
+				EventCarListNames.NameTableObject partNames = EventCarListNames.getNames().getPartNames();
+				for (short partUnlockId : eventByteObj.getPartUnlockIds()) {
+					String name = partNames.getUniqueName(partUnlockId);
+					jsonWriter.value(name != null ? name : intToHexString(partUnlockId, byteSmallArraySize));
+				}
+			} else {
+				for (short partUnlockId : eventByteObj.getPartUnlockIds()) {
+					jsonWriter.value(intToHexString(partUnlockId, byteSmallArraySize));
+				}
+			}
+			jsonWriter.endArray();
+			if (namesMode == EventCarListNames.NamesMode.WITH_HEX && eventByteObj.getPartUnlockIds().length != 0) {
+				EventCarListNames.NameTableObject partNames = EventCarListNames.getNames().getPartNames();
+				jsonWriter.name("PartUnlockNames").beginArray();
+				for (short partUnlockId : eventByteObj.getPartUnlockIds()) {
+					String name = partNames.getName(partUnlockId);
+					jsonWriter.value(name != null ? name : intToHexString(partUnlockId, byteSmallArraySize));
+				}
+				jsonWriter.endArray();
+			}
+			jsonWriter.endObject();
+		}
+		
+		@Override
+		public EventEntryObject read(JsonReader jsonReader) throws IOException {
+			EventEntryObject eventObj = new EventEntryObject();
+			eventObj.setCarEntriesList(new ArrayList<>());
+			eventObj.setPartUnlockIds(new short[0]);
+			jsonReader.beginObject();
+			while (jsonReader.hasNext()) {
+				switch (jsonReader.nextName()) {
+				case "EventId":
+					eventObj.setEventId(EventCarListNames.resolveEventId(jsonReader.nextString())); break;
+				case "Cars":
+					jsonReader.beginArray();
+					while (jsonReader.hasNext()) {
+						eventObj.getCarEntriesList().add(carJsonAdapter.read(jsonReader));
+					}
+					jsonReader.endArray(); break;
+				case "PartUnlockIds":
+					short[] partUnlockIds = new short[8];
+					int partUnlocksCount = 0;
+					jsonReader.beginArray();
+					while (jsonReader.hasNext()) {
+						if (partUnlocksCount == partUnlockIds.length) {
+							partUnlockIds = Arrays.copyOf(partUnlockIds, partUnlocksCount * 2);
+						}
+						partUnlockIds[partUnlocksCount++] = EventCarListNames.resolvePartUnlockId(jsonReader.nextString());
+					}
+					jsonReader.endArray();
+					eventObj.setPartUnlockIds(Arrays.copyOf(partUnlockIds, partUnlocksCount)); break;
+				default:
+					jsonReader.skipValue(); break;
+				}
+			}
+			jsonReader.endObject();
+			return eventObj;
+		}
+	}
+	
+	static class CarJsonAdapter extends TypeAdapter<CarEntryObject> {
+		private final EventCarListNames.NamesMode namesMode;
+		
+		CarJsonAdapter() {
+			this(EventCarListNames.NamesMode.NONE);
+		}
+		
+		CarJsonAdapter(EventCarListNames.NamesMode namesMode) {
+			this.namesMode = namesMode;
+		}
+		
+		@Override
+		public void write(JsonWriter jsonWriter, CarEntryObject carEntry) throws IOException {
+			jsonWriter.beginObject();
+			writeIdValue(jsonWriter, "CarId", "CarName", carEntry.getCarId(), byteArraySize, namesMode, 
+					namesMode == EventCarListNames.NamesMode.NONE ? null : EventCarListNames.getNames().getCarNames());
+			jsonWriter.name("UnknownArray1").value(intToHexString(carEntry.getUnknownArray1(), byteArraySize));
+			jsonWriter.name("PartUnlockTypeIndex").value(carEntry.getPartUnlockTypeIndex());
+			jsonWriter.name("TheFFArray").value(hexToString(carEntry.getTheFFArray()));
+			jsonWriter.name("PartsAmountId").value(intToHexString(carEntry.getPartsAmountId(), byteArraySize));
+			jsonWriter.name("DifficultyId").value(intToHexString(carEntry.getDifficultyId(), byteArraySize));
+			jsonWriter.endObject();
+		}
+		
+		@Override
+		public CarEntryObject read(JsonReader jsonReader) throws IOException {
+			CarEntryObject carObj = new CarEntryObject();
+			jsonReader.beginObject();
+			while (jsonReader.hasNext()) {
+				switch (jsonReader.nextName()) {
+				case "CarId":
+					carObj.setCarId(EventCarListNames.resolveCarId(jsonReader.nextString())); break;
+				case "UnknownArray1":
+					carObj.setUnknownArray1(decodeHexInt(jsonReader.nextString())); break;
+				case "PartUnlockTypeIndex":
+					carObj.setPartUnlockTypeIndex(jsonReader.nextInt()); break;
+				case "TheFFArray":
+					carObj.setTheFFArray(decodeFFArray(jsonReader.nextString())); break;
+				case "PartsAmountId":
+					carObj.setPartsAmountId(decodeHexInt(jsonReader.nextString())); break;
+				case "DifficultyId":
+					carObj.setDifficultyId(decodeHexInt(jsonReader.nextString())); break;
+				default:
+					jsonReader.skipValue(); break;
+				}
+			}
+			jsonReader.endObject();
+			return carObj;
+		}
+	}
+	
+	// Name goes instead of the hex value only if it gives the same ID back on repack
+	private static void writeIdValue(JsonWriter jsonWriter, String idField, String nameField, int id, int size, 
+			EventCarListNames.NamesMode namesMode, EventCarListNames.NameTableObject namesTable) throws IOException {
+		if (namesMode == EventCarListNames.NamesMode.NONE) {
+			jsonWriter.name(idField).value(intToHexString(id, size));
+			return;
+		}
+		String uniqueName = namesTable.getUniqueName(id);
+		if (namesMode == EventCarListNames.NamesMode.ONLY && uniqueName != null) {
+			jsonWriter.name(idField).value(uniqueName);
+			return;
+		}
+		jsonWriter.name(idField).value(intToHexString(id, size));
+		String name = namesTable.getName(id);
+		if (namesMode == EventCarListNames.NamesMode.WITH_HEX && name != null) {
+			jsonWriter.name(nameField).value(name);
+		}
 	}
 	
 	//
 	// Objects
 	//
 	
-	public static class EventEntryObject {
-		private byte[] header; 
-		private byte[] eventId; 
-		private byte[] carEntriesOffset;
-		private byte[] carEntriesCount; 
-		private List<CarEntryObject> carEntriesList; 
-		private List<byte[]> partUnlockIdsList;
+	public interface EventEntryConsumer {
+		void accept(EventEntryObject eventObj) throws IOException;
+	}
+	
+	public static class DatIndexObject {
+		private final List<Integer> eventPosList = new ArrayList<>();
+		private final Map<Integer, Integer> eventIdsMap = new HashMap<>();
 		
-		public byte[] getHeader() {
-			return header;
-		}
-		public void setHeader(byte[] header) {
-			this.header = header;
+		public void addEvent(int eventId, int eventPos) {
+			eventIdsMap.putIfAbsent(eventId, eventPosList.size()); // First one is used on duplicates
+			eventPosList.add(eventPos);
 		}
 		
-		public byte[] getEventId() {
-			return eventId;
-		}
-		public void setEventId(byte[] eventId) {
-			this.eventId = eventId;
+		public int getEventsCount() {
+			return eventPosList.size();
 		}
 		
-		public byte[] getCarEntriesOffset() {
-			return carEntriesOffset;
+		public int getEventPos(int eventIndex) {
+			return eventPosList.get(eventIndex);
 		}
-		public void setCarEntriesOffset(byte[] carEntriesOffset) {
-			this.carEntriesOffset = carEntriesOffset;
+		
+		public int findEvent(int eventId) {
+			return eventIdsMap.getOrDefault(eventId, -1);
 		}
+	}
+	
+	// Returns true if the event has been changed
+	public interface EventEntryEditor {
+		boolean edit(EventEntryObject eventObj) throws IOException;
+	}
+	
+	public interface EventEntrySupplier {
+		EventEntryObject get(int eventIndex) throws IOException;
+	}
+	
+	// Values are kept as they are stored in .dat file (little-endian ints),
+	// entry headers and offsets are not kept since they are made from the layout
+	public static class EventEntryObject {
+		private int eventId; 
+		private List<CarEntryObject> carEntriesList; 
+		private short[] partUnlockIds;
 		
-		public byte[] getCarEntriesCount() {
-			return carEntriesCount;
+		public int getEventId() {
+			return eventId;
 		}
-		public void setCarEntriesCount(byte[] carEntriesCount) {
-			this.carEntriesCount = carEntriesCount;
+		public void setEventId(int eventId) {
+			this.eventId = eventId;
 		}
 		
 		public List<CarEntryObject> getCarEntriesList() {
@@ -436,52 +1342,50 @@ public class EventCarListEditor {
 			this.carEntriesList = carEntriesList;
 		}
 		
-		public List<byte[]> getPartUnlockIdsList() {
-			return partUnlockIdsList;
+		public short[] getPartUnlockIds() {
+			return partUnlockIds;
 		}
-		public void setPartUnlockIdsList(List<byte[]> partUnlockIdsList) {
-			this.partUnlockIdsList = partUnlockIdsList;
+		public void setPartUnlockIds(short[] partUnlockIds) {
+			this.partUnlockIds = partUnlockIds;
 		} 
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof EventEntryObject)) return false;
+			EventEntryObject eventObj = (EventEntryObject) obj;
+			return eventId == eventObj.eventId && carEntriesList.equals(eventObj.carEntriesList) 
+					&& Arrays.equals(partUnlockIds, eventObj.partUnlockIds);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(eventId, carEntriesList, Arrays.hashCode(partUnlockIds));
+		}
 	}
 	
 	public static class CarEntryObject {
-		private byte[] header; 
-		private byte[] carId; 
-		private byte[] unknownArray1;
-		private byte[] partUnlockOffset; 
+		private int carId; 
+		private int unknownArray1;
 		private int partUnlockTypeIndex;
-		private byte[] theFFArray; 
-		private byte[] partsAmountId;
-		private byte[] difficultyId;
-		
-		public byte[] getHeader() {
-			return header;
-		}
-		public void setHeader(byte[] header) {
-			this.header = header;
-		}
+		private byte[] theFFArray; // Could be shared with other cars, so it's replaced, not changed
+		private int partsAmountId;
+		private int difficultyId;
 		
-		public byte[] getCarId() {
+		public int getCarId() {
 			return carId;
 		}
-		public void setCarId(byte[] carId) {
+		public void setCarId(int carId) {
 			this.carId = carId;
 		}
 		
-		public byte[] getUnknownArray1() {
+		public int getUnknownArray1() {
 			return unknownArray1;
 		}
-		public void setUnknownArray1(byte[] unknownArray1) {
+		public void setUnknownArray1(int unknownArray1) {
 			this.unknownArray1 = unknownArray1;
 		}
 		
-		public byte[] getPartUnlockOffset() {
-			return partUnlockOffset;
-		}
-		public void setPartUnlockOffset(byte[] partUnlockOffset) {
-			this.partUnlockOffset = partUnlockOffset;
-		}
-		
 		public int getPartUnlockTypeIndex() {
 			return partUnlockTypeIndex;
 		}
@@ -496,129 +1400,95 @@ public class EventCarListEditor {
 			this.theFFArray = theFFArray;
 		}
 		
-		public byte[] getPartsAmountId() {
+		public int getPartsAmountId() {
 			return partsAmountId;
 		}
-		public void setPartsAmountId(byte[] partsAmountId) {
+		public void setPartsAmountId(int partsAmountId) {
 			this.partsAmountId = partsAmountId;
 		}
 		
-		public byte[] getDifficultyId() {
+		public int getDifficultyId() {
 			return difficultyId;
 		}
-		public void setDifficultyId(byte[] difficultyId) {
+		public void setDifficultyId(int difficultyId) {
 			this.difficultyId = difficultyId;
 		}
-	}
-	
-	public static class BottomIndexObject {
-		private String entryType; 
-		private byte[] offset;
 		
-		public BottomIndexObject(String entryType, byte[] offset) {
-			this.entryType = entryType;
-			this.offset = offset;
-		}
-
-		public String getEntryType() {
-			return entryType;
-		}
-		public void setEntryType(String entryType) {
-			this.entryType = entryType;
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof CarEntryObject)) return false;
+			CarEntryObject carObj = (CarEntryObject) obj;
+			return carId == carObj.carId && unknownArray1 == carObj.unknownArray1 
+					&& partUnlockTypeIndex == carObj.partUnlockTypeIndex && Arrays.equals(theFFArray, carObj.theFFArray)
+					&& partsAmountId == carObj.partsAmountId && difficultyId == carObj.difficultyId;
 		}
 		
-		public byte[] getOffset() {
-			return offset;
-		}
-		public void setOffset(byte[] offset) {
-			this.offset = offset;
+		@Override
+		public int hashCode() {
+			return Objects.hash(carId, unknownArray1, partUnlockTypeIndex, Arrays.hashCode(theFFArray), 
+					partsAmountId, difficultyId);
 		}
 	}
 	
-	public static class EventJsonObject {
-		@SerializedName("EventId")
-		private String eventId; 
-		@SerializedName("Cars")
-		private List<CarJsonObject> carsList; 
-		@SerializedName("PartUnlockIds")
-		private List<String> partUnlockIdsList;
+	// Sizes of all .dat parts, counted before anything is written
+	public static class DatLayoutObject {
+		private int eventsCount;
+		private int totalCarsCount;
+		private long eventsDataSize;
+		private int[] carsCounts = new int[64];
+		private int[] partUnlocksCounts = new int[64];
 		
-		public String getEventId() {
-			return eventId;
-		}
-		public void setEventId(String eventId) {
-			this.eventId = eventId;
+		public void addEvent(int carsCount, int partUnlocksCount) {
+			if (eventsCount == carsCounts.length) {
+				carsCounts = Arrays.copyOf(carsCounts, eventsCount * 2);
+				partUnlocksCounts = Arrays.copyOf(partUnlocksCounts, eventsCount * 2);
+			}
+			carsCounts[eventsCount] = carsCount;
+			partUnlocksCounts[eventsCount] = partUnlocksCount;
+			totalCarsCount += carsCount;
+			eventsDataSize += getEventSize(eventsCount);
+			eventsCount++;
 		}
 		
-		public List<CarJsonObject> getCarsList() {
-			return carsList;
-		}
-		public void setCarsList(List<CarJsonObject> carsList) {
-			this.carsList = carsList;
+		public int getEventsCount() {
+			return eventsCount;
 		}
 		
-		public List<String> getPartUnlockIdsList() {
-			return partUnlockIdsList;
-		}
-		public void setPartUnlockIdsList(List<String> partUnlockIdsList) {
-			this.partUnlockIdsList = partUnlockIdsList;
-		} 
-	}
-	
-	public static class CarJsonObject {
-		@SerializedName("CarId")
-		private String carId; 
-		@SerializedName("UnknownArray1")
-		private String unknownArray1;
-		@SerializedName("PartUnlockTypeIndex")
-		private int partUnlockTypeIndex;
-		@SerializedName("TheFFArray")
-		private String theFFArray;
-		@SerializedName("PartsAmountId")
-		private String partsAmountId;
-		@SerializedName("DifficultyId")
-		private String difficultyId;
-		
-		public String getCarId() {
-			return carId;
-		}
-		public void setCarId(String carId) {
-			this.carId = carId;
+		public int getCarsCount(int eventIndex) {
+			return carsCounts[eventIndex];
 		}
 		
-		public String getUnknownArray1() {
-			return unknownArray1;
-		}
-		public void setUnknownArray1(String unknownArray1) {
-			this.unknownArray1 = unknownArray1;
+		public int getPartUnlocksCount(int eventIndex) {
+			return partUnlocksCounts[eventIndex];
 		}
 		
-		public int getPartUnlockTypeIndex() {
-			return partUnlockTypeIndex;
-		}
-		public void setPartUnlockTypeIndex(int partUnlockTypeIndex) {
-			this.partUnlockTypeIndex = partUnlockTypeIndex;
+		public int getEventsStart() {
+			return datHeaderArray.length + byteArraySize + eventsCount * byteArraySize;
 		}
 		
-		public String getTheFFArray() {
-			return theFFArray;
-		}
-		public void setTheFFArray(String theFFArray) {
-			this.theFFArray = theFFArray;
+		public int getEventSize(int eventIndex) {
+			return eventSchema.getRecordSize(carsCounts[eventIndex], partUnlocksCounts[eventIndex]);
 		}
 		
-		public String getPartsAmountId() {
-			return partsAmountId;
+		public int getTotalCarsCount() {
+			return totalCarsCount;
 		}
-		public void setPartsAmountId(String partsAmountId) {
-			this.partsAmountId = partsAmountId;
+		
+		public int getBottomIndexStart() {
+			return Math.toIntExact(getEventsStart() + eventsDataSize);
 		}
 		
-		public String getDifficultyId() {
-			return difficultyId;
+		public boolean isSameLayout(DatLayoutObject datLayout) {
+			return eventsCount == datLayout.eventsCount
+					&& Arrays.equals(carsCounts, 0, eventsCount, datLayout.carsCounts, 0, eventsCount)
+					&& Arrays.equals(partUnlocksCounts, 0, eventsCount, datLayout.partUnlocksCounts, 0, eventsCount);
 		}
-		public void setDifficultyId(String difficultyId) {
-			this.difficultyId = difficultyId;
+		
+		// Header, events and bottom index with an entry for each event and car
+		public int getFileSize() {
+			return Math.toIntExact(getEventsStart() + eventsDataSize + indexEndByteArray.length 
+					+ (long) bottomEntrySize * (eventsCount + totalCarsCount));
 		}
 	}
 	
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+// Synthetic .dat files for the scale test: events with the given amount of cars and PartUnlock IDs,
+// encoded by the same layout code as repack. Scale test round-trips each size (dat -> JSON -> dat),
+// and tells the time, peak heap and if the result is the same, byte by byte and event by event
+public class EventCarListGenerator {
+
+	private static final int scaleCarsCount = 8;
+	private static final int scalePartUnlocksCount = 4;
+	private static final int scaleMinEventsCount = 1024;
+	private static final long defaultSeed = 2012;
+
+	private final EventCarListEditor eventCarListEd;
+
+	public EventCarListGenerator(EventCarListEditor eventCarListEd) {
+		this.eventCarListEd = eventCarListEd;
+	}
+
+	// Same seed gives the same file
+	public List<EventCarListEditor.EventEntryObject> generateEvents(int eventsCount, int carsCount,
+			int partUnlocksCount, long seed) {
+		Random random = new Random(seed);
+		Set<Integer> eventIdsSet = new HashSet<>();
+		List<EventCarListEditor.EventEntryObject> eventsList = new ArrayList<>(eventsCount);
+		for (int i = 0; i < eventsCount; i++) {
+			int eventId = random.nextInt();
+			while (!eventIdsSet.add(eventId)) {
+				eventId = random.nextInt();
+			}
+			EventCarListEditor.EventEntryObject eventObj = new EventCarListEditor.EventEntryObject();
+			eventObj.setEventId(eventId);
+			short[] partUnlockIds = new short[partUnlocksCount];
+			for (int j = 0; j < partUnlocksCount; j++) {
+				partUnlockIds[j] = (short) (random.nextInt(0x20) + 1);
+			}
+			eventObj.setPartUnlockIds(partUnlockIds);
+			List<EventCarListEditor.CarEntryObject> carEntriesList = new ArrayList<>(carsCount);
+			for (int j = 0; j < carsCount; j++) {
+				EventCarListEditor.CarEntryObject carObj = new EventCarListEditor.CarEntryObject();
+				carObj.setCarId(random.nextInt());
+				carObj.setUnknownArray1(random.nextInt(4));
+				carObj.setPartUnlockTypeIndex(partUnlocksCount == 0 ? 0 : random.nextInt(partUnlocksCount));
+				byte[] theFFArray = new byte[12];
+				Arrays.fill(theFFArray, (byte) 0xFF);
+				carObj.setTheFFArray(theFFArray);
+				carObj.setPartsAmountId(random.nextInt(8));
+				carObj.setDifficultyId(random.nextInt(4));
+				carEntriesList.add(carObj);
+			}
+			eventObj.setCarEntriesList(carEntriesList);
+			eventsList.add(eventObj);
+		}
+		return eventsList;
+	}
+
+	// Files past the limits are still written, so the scale test can show what happens to them
+	public void generateFile(String outputName, int eventsCount, int carsCount, int partUnlocksCount, long seed)
+			throws IOException {
+		List<EventCarListEditor.EventEntryObject> eventsList =
+				generateEvents(eventsCount, carsCount, partUnlocksCount, seed);
+		int fileSize = eventCarListEd.getEventsLayout(eventsList).getFileSize();
+		if (carsCount > EventCarListValidator.maxCarsCount) {
+			System.out.println("### Warning: " + carsCount + " cars per event, but only " 
+					+ EventCarListValidator.maxCarsCount + " are supported.");
+		}
+		if (fileSize > EventCarListValidator.maxFileSize) {
+			System.out.println("### Warning: file is " + fileSize + " bytes, but only " 
+					+ EventCarListValidator.maxFileSize + " bytes are supported.");
+		}
+		eventCarListEd.writeDatFileOutput(eventsList, outputName);
+		System.out.println("### Generated " + eventsCount + " events, " + fileSize + " bytes.");
+	}
+
+	public void generateFile(String outputName, int eventsCount, int carsCount, int partUnlocksCount)
+			throws IOException {
+		generateFile(outputName, eventsCount, carsCount, partUnlocksCount, defaultSeed);
+	}
+
+	//
+	// Scale test
+	//
+
+	// Events count goes x2 until the file is twice bigger than the limit (or maxEventsCount),
+	// then go the events with the cars count around the limit. Results go into scale-test.csv of the folder
+	public void runScaleTest(String folderPath, int maxEventsCount) throws IOException {
+		Path folder = Paths.get(folderPath);
+		Files.createDirectories(folder);
+		List<ScaleResultObject> resultsList = new ArrayList<>();
+		for (int eventsCount = scaleMinEventsCount; eventsCount <= maxEventsCount; eventsCount *= 2) {
+			ScaleResultObject resultObj = runScaleCase(folder, eventsCount, scaleCarsCount, scalePartUnlocksCount);
+			resultsList.add(resultObj);
+			if (resultObj.getFileSize() > EventCarListValidator.maxFileSize * 2L) break;
+		}
+		resultsList.add(runScaleCase(folder, 16, EventCarListValidator.maxCarsCount, scalePartUnlocksCount));
+		resultsList.add(runScaleCase(folder, 16, EventCarListValidator.maxCarsCount + 1, scalePartUnlocksCount));
+		resultsList.add(runScaleCase(folder, 16, scaleCarsCount, 0));
+		resultsList.add(runScaleCase(folder, 16, scaleCarsCount, 1024));
+
+		StringBuilder csv = new StringBuilder("Events,Cars,PartUnlocks,FileSize,WriteMs,UnpackMs,RepackMs,PeakHeapMB,"
+				+ "SameBytes,SameEvents,Error\n");
+		System.out.println("### Scale test results:");
+		for (ScaleResultObject resultObj : resultsList) {
+			System.out.println("### " + resultObj.toTextLine());
+			csv.append(resultObj.toCsvLine()).append('\n');
+		}
+		Path csvFile = folder.resolve("scale-test.csv");
+		Files.write(csvFile, csv.toString().getBytes(StandardCharsets.UTF_8));
+		System.out.println("### Scale test results are saved: " + csvFile);
+	}
+
+	// Generated file is unpacked into JSON and repacked, then repacked file is compared with generated one.
+	// Errors are kept in the result, so the next sizes are still tested
+	private ScaleResultObject runScaleCase(Path folder, int eventsCount, int carsCount, int partUnlocksCount) {
+		ScaleResultObject resultObj = new ScaleResultObject(eventsCount, carsCount, partUnlocksCount);
+		String baseName = folder.resolve("scale_" + eventsCount + "_" + carsCount + "_" + partUnlocksCount).toString();
+		String datPath = baseName + ".dat";
+		String repackedPath = baseName + "_repacked.dat";
+		System.gc();
+		List<MemoryPoolMXBean> heapPools = getHeapPools();
+		try {
+			long startTime = System.nanoTime();
+			List<EventCarListEditor.EventEntryObject> eventsList =
+					generateEvents(eventsCount, carsCount, partUnlocksCount, defaultSeed);
+			resultObj.setFileSize(eventCarListEd.getEventsLayout(eventsList).getFileSize());
+			eventCarListEd.writeDatFileOutput(eventsList, datPath);
+			long writeTime = System.nanoTime();
+			eventCarListEd.unpackDatFile(datPath, baseName, true);
+			long unpackTime = System.nanoTime();
+			eventCarListEd.writeDatFileOutput(baseName, repackedPath);
+			long repackTime = System.nanoTime();
+			resultObj.setWriteMs((writeTime - startTime) / 1000000);
+			resultObj.setUnpackMs((unpackTime - writeTime) / 1000000);
+			resultObj.setRepackMs((repackTime - unpackTime) / 1000000);
+			resultObj.setSameBytes(Arrays.equals(Files.readAllBytes(Paths.get(datPath)),
+					Files.readAllBytes(Paths.get(repackedPath))));
+			resultObj.setSameEvents(eventsList.equals(eventCarListEd.readEventsFile(repackedPath)));
+		} catch (IOException | RuntimeException | OutOfMemoryError e) {
+			resultObj.setError(e.toString());
+		}
+		resultObj.setPeakHeapBytes(getPeakHeapBytes(heapPools));
+		try {
+			Files.deleteIfExists(Paths.get(datPath));
+			Files.deleteIfExists(Paths.get(repackedPath));
+			Files.deleteIfExists(Paths.get(baseName + ".json"));
+		} catch (IOException e) {
+			System.out.println("### Can't remove the test files: " + e);
+		}
+		return resultObj;
+	}
+
+	// Peak values are counted from now on
+	private static List<MemoryPoolMXBean> getHeapPools() {
+		List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				pool.resetPeakUsage();
+				heapPools.add(pool);
+			}
+		}
+		return heapPools;
+	}
+
+	// Sum of the pool peaks, it could be a bit more than the real peak, as pools don't have it at the same time
+	private static long getPeakHeapBytes(List<MemoryPoolMXBean> heapPools) {
+		long peakBytes = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			peakBytes += pool.getPeakUsage().getUsed();
+		}
+		return peakBytes;
+	}
+
+	//
+	// Objects
+	//
+
+	public static class ScaleResultObject {
+		private final int eventsCount;
+		private final int carsCount;
+		private final int partUnlocksCount;
+		private long fileSize;
+		private long writeMs;
+		private long unpackMs;
+		private long repackMs;
+		private long peakHeapBytes;
+		private boolean isSameBytes;
+		private boolean isSameEvents;
+		private String error = "";
+
+		public ScaleResultObject(int eventsCount, int carsCount, int partUnlocksCount) {
+			this.eventsCount = eventsCount;
+			this.carsCount = carsCount;
+			this.partUnlocksCount = partUnlocksCount;
+		}
+
+		public long getFileSize() {
+			return fileSize;
+		}
+
+		public void setFileSize(long fileSize) {
+			this.fileSize = fileSize;
+		}
+
+		public void setWriteMs(long writeMs) {
+			this.writeMs = writeMs;
+		}
+
+		public void setUnpackMs(long unpackMs) {
+			this.unpackMs = unpackMs;
+		}
+
+		public void setRepackMs(long repackMs) {
+			this.repackMs = repackMs;
+		}
+
+		public void setPeakHeapBytes(long peakHeapBytes) {
+			this.peakHeapBytes = peakHeapBytes;
+		}
+
+		public boolean isSameBytes() {
+			return isSameBytes;
+		}
+
+		public void setSameBytes(boolean isSameBytes) {
+			this.isSameBytes = isSameBytes;
+		}
+
+		public boolean isSameEvents() {
+			return isSameEvents;
+		}
+
+		public void setSameEvents(boolean isSameEvents) {
+			this.isSameEvents = isSameEvents;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public void setError(String error) {
+			this.error = error;
+		}
+
+		public String toTextLine() {
+			String result = !error.isEmpty() ? "FAILED: " + error : isSameBytes && isSameEvents ? "OK"
+					: "NOT SAME (bytes: " + isSameBytes + ", events: " + isSameEvents + ")";
+			return String.format(Locale.ROOT, "%d events x %d cars x %d PartUnlocks, %d bytes: write %d ms, "
+					+ "unpack %d ms, repack %d ms, peak heap %.1f MB, %s", eventsCount, carsCount, partUnlocksCount,
+					fileSize, writeMs, unpackMs, repackMs, peakHeapBytes / 1048576.0, result);
+		}
+
+		public String toCsvLine() {
+			return String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%d,%.1f,%b,%b,\"%s\"", eventsCount, carsCount,
+					partUnlocksCount, fileSize, writeMs, unpackMs, repackMs, peakHeapBytes / 1048576.0,
+					isSameBytes, isSameEvents, error.replace("\"", "\"\""));
+		}
+	}
+}
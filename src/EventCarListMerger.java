@@ -0,0 +1,151 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Merges the overlay JSONs (mod edits) into the base events, overlays are applied in the given order.
+// Events are found by EventId, and cars by CarId inside of the event, so each overlay is merged in one pass.
+// Overlay values which are the same as in the base are not changes, so the full copies of the base can be merged too.
+// If two overlays change the same car or PartUnlock IDs in different ways, it's a conflict: the last overlay wins
+public class EventCarListMerger {
+
+	private final EventCarListEditor eventCarListEd;
+
+	private final Map<Integer, EventCarListEditor.EventEntryObject> eventsMap = new LinkedHashMap<>();
+	private final Map<Integer, EventCarListEditor.EventEntryObject> baseEventsMap = new HashMap<>();
+	// Car positions in the merged event by CarId, there could be several cars with the same CarId
+	private final Map<Integer, Map<Integer, List<Integer>>> carPositionsMap = new HashMap<>();
+	// Which overlay changed the car ("EventId/CarId/number") or PartUnlock IDs ("EventId/PartUnlockIds")
+	private final Map<String, String> changedByMap = new HashMap<>();
+
+	private int eventsAddedCount = 0;
+	private int carsChangedCount = 0;
+	private int carsAddedCount = 0;
+	private int partUnlocksChangedCount = 0;
+	private int conflictsCount = 0;
+
+	public EventCarListMerger(EventCarListEditor eventCarListEd) {
+		this.eventCarListEd = eventCarListEd;
+	}
+
+	public void mergeFiles(String basePath, List<String> overlayPaths, String outputName, boolean isCompactJson)
+			throws IOException {
+		eventCarListEd.readEventsFile(basePath, this::addBaseEvent);
+		for (String overlayPath : overlayPaths) {
+			eventCarListEd.readEventsFile(overlayPath, eventObj -> mergeEvent(eventObj, overlayPath));
+		}
+		System.out.println("### Merged " + overlayPaths.size() + " overlays: " + eventsAddedCount + " events added, "
+				+ carsChangedCount + " cars changed, " + carsAddedCount + " cars added, "
+				+ partUnlocksChangedCount + " PartUnlock IDs changed, " + conflictsCount + " conflicts.");
+
+		List<EventCarListEditor.EventEntryObject> eventsList = getMergedEvents();
+		eventCarListEd.validateEventsList(eventsList); // Overlay could change PartUnlockIds without the cars
+		if (outputName.toLowerCase().endsWith(".dat") || EventCarListBundle.isBundleFile(outputName)) {
+			eventCarListEd.writeDatFileOutput(eventsList, outputName);
+		} else {
+			eventCarListEd.writeJsonOutput(eventsList, outputName, isCompactJson);
+		}
+	}
+
+	public List<EventCarListEditor.EventEntryObject> getMergedEvents() {
+		return new ArrayList<>(eventsMap.values());
+	}
+
+	public int getConflictsCount() {
+		return conflictsCount;
+	}
+
+	// Events are merged by EventId, so the base can't have the same EventId twice
+	public void addBaseEvent(EventCarListEditor.EventEntryObject eventObj) throws IOException {
+		if (baseEventsMap.putIfAbsent(eventObj.getEventId(), eventObj) != null) {
+			throw new IOException("Base file has EventId " + EventCarListEditor.intToHexString(eventObj.getEventId(), 4)
+					+ " more than once, nothing has been merged.");
+		}
+		addMergedEvent(eventObj);
+	}
+
+	public void mergeEvent(EventCarListEditor.EventEntryObject eventObj, String overlayName) {
+		int eventId = eventObj.getEventId();
+		EventCarListEditor.EventEntryObject mergedEvent = eventsMap.get(eventId);
+		if (mergedEvent == null) {
+			addMergedEvent(eventObj);
+			Map<Integer, Integer> carNumbers = new HashMap<>();
+			for (EventCarListEditor.CarEntryObject carObj : eventObj.getCarEntriesList()) {
+				int carNumber = carNumbers.merge(carObj.getCarId(), 1, Integer::sum) - 1;
+				changedByMap.put(getCarKey(eventId, carObj.getCarId(), carNumber), overlayName);
+			}
+			changedByMap.put(getPartUnlocksKey(eventId), overlayName);
+			eventsAddedCount++;
+			return;
+		}
+		EventCarListEditor.EventEntryObject baseEvent = baseEventsMap.get(eventId);
+		Map<Integer, List<Integer>> carPositions = carPositionsMap.get(eventId);
+		Map<Integer, Integer> carNumbers = new HashMap<>();
+		for (EventCarListEditor.CarEntryObject carObj : eventObj.getCarEntriesList()) {
+			int carNumber = carNumbers.merge(carObj.getCarId(), 1, Integer::sum) - 1; // Same CarId cars go in order
+			List<Integer> positions = carPositions.computeIfAbsent(carObj.getCarId(), carId -> new ArrayList<>());
+			String carKey = getCarKey(eventId, carObj.getCarId(), carNumber);
+			if (carNumber >= positions.size()) {
+				positions.add(mergedEvent.getCarEntriesList().size());
+				mergedEvent.getCarEntriesList().add(carObj);
+				changedByMap.put(carKey, overlayName);
+				carsAddedCount++;
+				continue;
+			}
+			int carPos = positions.get(carNumber);
+			EventCarListEditor.CarEntryObject mergedCar = mergedEvent.getCarEntriesList().get(carPos);
+			boolean isBaseCar = baseEvent != null && carPos < baseEvent.getCarEntriesList().size();
+			if (mergedCar.equals(carObj) || (isBaseCar && baseEvent.getCarEntriesList().get(carPos).equals(carObj))) {
+				continue; // Not changed by this overlay
+			}
+			reportConflict(carKey, overlayName, "event " + EventCarListEditor.intToHexString(eventId, 4)
+					+ ", car " + EventCarListEditor.intToHexString(carObj.getCarId(), 4));
+			mergedEvent.getCarEntriesList().set(carPos, carObj);
+			carsChangedCount++;
+		}
+
+		short[] partUnlockIds = eventObj.getPartUnlockIds();
+		if (!Arrays.equals(mergedEvent.getPartUnlockIds(), partUnlockIds)
+				&& (baseEvent == null || !Arrays.equals(baseEvent.getPartUnlockIds(), partUnlockIds))) {
+			reportConflict(getPartUnlocksKey(eventId), overlayName, "event "
+					+ EventCarListEditor.intToHexString(eventId, 4) + ", PartUnlock IDs");
+			mergedEvent.setPartUnlockIds(partUnlockIds);
+			partUnlocksChangedCount++;
+		}
+	}
+
+	// Merged event gets its own cars list, so the base event is kept as it is, to compare with overlays
+	private void addMergedEvent(EventCarListEditor.EventEntryObject eventObj) {
+		EventCarListEditor.EventEntryObject mergedEvent = new EventCarListEditor.EventEntryObject();
+		mergedEvent.setEventId(eventObj.getEventId());
+		mergedEvent.setCarEntriesList(new ArrayList<>(eventObj.getCarEntriesList()));
+		mergedEvent.setPartUnlockIds(eventObj.getPartUnlockIds());
+		eventsMap.put(eventObj.getEventId(), mergedEvent);
+
+		Map<Integer, List<Integer>> carPositions = new HashMap<>();
+		for (int i = 0; i < eventObj.getCarEntriesList().size(); i++) {
+			carPositions.computeIfAbsent(eventObj.getCarEntriesList().get(i).getCarId(), carId -> new ArrayList<>()).add(i);
+		}
+		carPositionsMap.put(eventObj.getEventId(), carPositions);
+	}
+
+	private void reportConflict(String changedKey, String overlayName, String entryName) {
+		String prevOverlayName = changedByMap.put(changedKey, overlayName);
+		if (prevOverlayName != null && !prevOverlayName.equals(overlayName)) {
+			System.out.println("### Conflict: " + entryName + " is changed by " + prevOverlayName + " and "
+					+ overlayName + ", last one is used.");
+			conflictsCount++;
+		}
+	}
+
+	private static String getCarKey(int eventId, int carId, int carNumber) {
+		return eventId + "/" + carId + "/" + carNumber;
+	}
+
+	private static String getPartUnlocksKey(int eventId) {
+		return eventId + "/PartUnlockIds";
+	}
+}
@@ -0,0 +1,173 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Names of EventIds, CarIds and PartUnlock IDs, from docs/EventIDs.txt, docs/PartsIDs.txt (taken from the jar,
+// or from docs folder) and the user lists (-event-names, -car-names options). Lists are read once, on the first use.
+// Unpack can write names next to hex values or instead of them, repack takes both. Hex values are checked first,
+// so the names are looked up only for the values which are not hex
+public class EventCarListNames {
+
+	private static final int byteArraySize = 4;
+	private static final int byteSmallArraySize = 2;
+	private static final String eventNamesResource = "docs/EventIDs.txt";
+	private static final String partNamesResource = "docs/PartsIDs.txt";
+	// Lines like "95 03 16 00 - Cold Burn, Circuit" or "0100 - Track Tires", "*" footnote mark is not in the name
+	private static final Pattern nameLinePattern = 
+			Pattern.compile("^\\s*((?:[0-9A-Fa-f]{2} ?){2,4})\\s*-\\s*(.+?)\\*?\\s*$");
+
+	public enum NamesMode {
+		NONE, // Hex values only
+		WITH_HEX, // Hex values, and names in EventName, CarName, PartUnlockNames fields
+		ONLY // Names instead of hex values, if they are known
+	}
+
+	private final NameTableObject eventNames = new NameTableObject("event", byteArraySize);
+	private final NameTableObject carNames = new NameTableObject("car", byteArraySize);
+	private final NameTableObject partNames = new NameTableObject("PartUnlock", byteSmallArraySize);
+
+	// Built on first use only, files without names never need it
+	public static EventCarListNames getNames() {
+		return NamesHolder.names;
+	}
+
+	private static class NamesHolder {
+		static final EventCarListNames names = loadDefaultNames();
+	}
+
+	private static EventCarListNames loadDefaultNames() {
+		EventCarListNames names = new EventCarListNames();
+		try {
+			names.getEventNames().addNamesResource(eventNamesResource);
+			names.getPartNames().addNamesResource(partNamesResource);
+		} catch (IOException e) {
+			System.out.println("### ID lists can't be read: " + e);
+		}
+		return names;
+	}
+
+	public NameTableObject getEventNames() {
+		return eventNames;
+	}
+
+	public NameTableObject getCarNames() {
+		return carNames;
+	}
+
+	public NameTableObject getPartNames() {
+		return partNames;
+	}
+
+	// Hex string of the exact size (as in JSON), or the known name. Names are not loaded while values are hex
+	public static int resolveEventId(String str) {
+		return isHexString(str, byteArraySize) ? EventCarListEditor.decodeHexInt(str) 
+				: getNames().getEventNames().findId(str);
+	}
+
+	public static int resolveCarId(String str) {
+		return isHexString(str, byteArraySize) ? EventCarListEditor.decodeHexInt(str) 
+				: getNames().getCarNames().findId(str);
+	}
+
+	public static short resolvePartUnlockId(String str) {
+		return (short) (isHexString(str, byteSmallArraySize) ? EventCarListEditor.decodeHexInt(str)
+				: getNames().getPartNames().findId(str));
+	}
+
+	// Same check as on validate: exact amount of hex digits
+	static boolean isHexString(String str, int size) {
+		if (str.length() != size * 2) return false;
+		for (int i = 0; i < str.length(); i++) {
+			if (Character.digit(str.charAt(i), 16) == -1) return false;
+		}
+		return true;
+	}
+
+	//
+	// Objects
+	//
+
+	// Names by ID and IDs by name (case is ignored), first name of the ID is used, same for the IDs of the name
+	public static class NameTableObject {
+		private final String kind;
+		private final int idSize;
+		private final Map<Integer, String> namesMap = new HashMap<>();
+		private final Map<String, Integer> idsMap = new HashMap<>();
+
+		public NameTableObject(String kind, int idSize) {
+			this.kind = kind;
+			this.idSize = idSize;
+		}
+
+		public int getNamesCount() {
+			return namesMap.size();
+		}
+
+		public void addName(int id, String name) {
+			namesMap.putIfAbsent(id, name);
+			idsMap.putIfAbsent(name.toLowerCase(Locale.ROOT), id);
+		}
+
+		// Null if there is no name
+		public String getName(int id) {
+			return namesMap.get(id);
+		}
+
+		// Only the names which give the same ID back, so the repack result is the same
+		public String getUniqueName(int id) {
+			String name = namesMap.get(id);
+			return name != null && idsMap.get(name.toLowerCase(Locale.ROOT)) == id ? name : null;
+		}
+
+		public int findId(String name) {
+			Integer id = idsMap.get(name.toLowerCase(Locale.ROOT));
+			if (id == null) {
+				throw new IllegalArgumentException("\"" + name + "\" is not a hex value or a known " + kind + " name");
+			}
+			return id;
+		}
+
+		public void addNamesFile(String filePath) throws IOException {
+			try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+				addNames(reader);
+			}
+		}
+
+		// From the jar, or from the working folder if the tool runs from classes
+		public void addNamesResource(String resourceName) throws IOException {
+			InputStream inputStream = EventCarListNames.class.getResourceAsStream("/" + resourceName);
+			if (inputStream == null) {
+				Path file = Paths.get(resourceName);
+				if (!Files.isRegularFile(file)) return;
+				inputStream = Files.newInputStream(file);
+			}
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+				addNames(reader);
+			}
+		}
+
+		// Lines with other ID size are skipped, like the headers and notes
+		private void addNames(BufferedReader reader) throws IOException {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Matcher matcher = nameLinePattern.matcher(line);
+				if (!matcher.find()) continue;
+				String idStr = matcher.group(1).replace(" ", "");
+				if (idStr.length() == idSize * 2) {
+					addName(EventCarListEditor.decodeHexInt(idStr), matcher.group(2));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,473 @@
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Keeps the loaded files decoded in memory (serve command), and answers JSON-RPC 2.0 requests on localhost:
+// files, list, get, edit, save and shutdown. Events are found by EventId, and by CarId of their cars.
+// Requests go on virtual threads if Java has them, readers of the file share its lock, edits take it alone.
+// Saves of the file go one by one, and edits wait for them
+public class EventCarListServer {
+
+	private static final int byteArraySize = 4;
+
+	// JSON-RPC error codes
+	private static final int parseErrorCode = -32700;
+	private static final int invalidRequestCode = -32600;
+	private static final int methodNotFoundCode = -32601;
+	private static final int invalidParamsCode = -32602;
+	private static final int internalErrorCode = -32603;
+	private static final int fileErrorCode = -32000;
+
+	private final EventCarListEditor eventCarListEd;
+	private final Map<String, ModelObject> modelsMap = new LinkedHashMap<>();
+	private final CountDownLatch shutdownLatch = new CountDownLatch(1);
+
+	public EventCarListServer(EventCarListEditor eventCarListEd) {
+		this.eventCarListEd = eventCarListEd;
+	}
+
+	// Files are loaded before the server starts, so the map of models is never changed later.
+	// Duplicate EventIds can't be found by EventId, so such files are not loaded
+	public void loadFile(String filePath) throws IOException {
+		ModelObject modelObj = new ModelObject(filePath);
+		eventCarListEd.readEventsFile(filePath, eventObj -> {
+			if (!modelObj.addEvent(eventObj)) {
+				throw new IOException(filePath + " has EventId " 
+						+ EventCarListEditor.intToHexString(eventObj.getEventId(), byteArraySize) + " more than once.");
+			}
+		});
+		modelsMap.put(filePath, modelObj);
+		System.out.println("### Loaded " + filePath + ": " + modelObj.getEventsCount() + " events.");
+	}
+
+	// Works until the shutdown request comes
+	public void serveFiles(int port, List<String> filePaths) throws IOException, InterruptedException {
+		for (String filePath : filePaths) {
+			loadFile(filePath);
+		}
+		HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		ExecutorService executor = createExecutor();
+		httpServer.setExecutor(executor);
+		httpServer.createContext("/", this::handleExchange);
+		httpServer.start();
+		System.out.println("### Serving on http://localhost:" + httpServer.getAddress().getPort() + "/");
+		try {
+			shutdownLatch.await();
+		} finally {
+			httpServer.stop(0);
+			executor.shutdown();
+		}
+		System.out.println("### Server has been stopped.");
+	}
+
+	// Virtual threads are taken by reflection, since the tool is built for Java 11
+	private static ExecutorService createExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	// Server stops only after the response to shutdown is sent
+	private void handleExchange(HttpExchange exchange) throws IOException {
+		JsonElement requestElement = JsonNull.INSTANCE;
+		try {
+			if (!exchange.getRequestMethod().contentEquals("POST")) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			// Browsers send Origin on cross-site requests, and can't send JSON content type without a preflight
+			if (exchange.getRequestHeaders().containsKey("Origin")) {
+				exchange.sendResponseHeaders(403, -1);
+				return;
+			}
+			if (!isJsonContentType(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+				exchange.sendResponseHeaders(415, -1);
+				return;
+			}
+			String response;
+			try (InputStreamReader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+				requestElement = JsonParser.parseReader(reader);
+				response = handleRequest(requestElement);
+			} catch (JsonParseException e) {
+				response = writeError(JsonNull.INSTANCE, parseErrorCode, "Parse error: " + e.getMessage());
+			}
+			byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, responseBytes.length);
+			try (OutputStream outputStream = exchange.getResponseBody()) {
+				outputStream.write(responseBytes);
+			}
+		} finally {
+			exchange.close();
+			if (isShutdownRequest(requestElement)) {
+				shutdownLatch.countDown();
+			}
+		}
+	}
+
+	// Parameters like charset are allowed
+	private static boolean isJsonContentType(String contentType) {
+		return contentType != null 
+				&& contentType.split(";", 2)[0].trim().equalsIgnoreCase("application/json");
+	}
+
+	private static boolean isShutdownRequest(JsonElement requestElement) {
+		if (!requestElement.isJsonObject()) return false;
+		JsonElement method = requestElement.getAsJsonObject().get("method");
+		return method != null && method.isJsonPrimitive() && method.getAsString().contentEquals("shutdown");
+	}
+
+	// Response for one request, errors of the request are returned in it
+	public String handleRequest(JsonElement requestElement) throws IOException {
+		if (!requestElement.isJsonObject()) {
+			return writeError(JsonNull.INSTANCE, invalidRequestCode, "Invalid request: object is expected");
+		}
+		JsonObject requestObj = requestElement.getAsJsonObject();
+		JsonElement id = requestObj.has("id") ? requestObj.get("id") : JsonNull.INSTANCE;
+		if (!requestObj.has("method") || !requestObj.get("method").isJsonPrimitive()) {
+			return writeError(id, invalidRequestCode, "Invalid request: method is missing");
+		}
+		JsonObject params = requestObj.has("params") && requestObj.get("params").isJsonObject()
+				? requestObj.getAsJsonObject("params") : new JsonObject();
+		try {
+			switch (requestObj.get("method").getAsString()) {
+			case "files":
+				return writeResult(id, this::writeFiles);
+			case "list":
+				return listEvents(id, params);
+			case "get":
+				return getEvent(id, params);
+			case "edit":
+				return editEvent(id, params);
+			case "save":
+				return saveFile(id, params);
+			case "shutdown":
+				return writeResult(id, jsonWriter -> jsonWriter.value(true));
+			default:
+				return writeError(id, methodNotFoundCode, "Method not found");
+			}
+		} catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException
+				| JsonParseException e) {
+			return writeError(id, invalidParamsCode, "Invalid params: " + e.getMessage());
+		} catch (IOException | IndexOutOfBoundsException e) {
+			return writeError(id, fileErrorCode, e.getMessage());
+		} catch (RuntimeException e) { // Each request gets the response, even on a bug
+			return writeError(id, internalErrorCode, "Internal error: " + e);
+		}
+	}
+
+	private void writeFiles(JsonWriter jsonWriter) throws IOException {
+		jsonWriter.beginArray();
+		for (ModelObject modelObj : modelsMap.values()) {
+			modelObj.getLock().readLock().lock();
+			try {
+				jsonWriter.beginObject();
+				jsonWriter.name("File").value(modelObj.getFilePath());
+				jsonWriter.name("EventsCount").value(modelObj.getEventsCount());
+				jsonWriter.name("IsChanged").value(modelObj.isChanged());
+				jsonWriter.endObject();
+			} finally {
+				modelObj.getLock().readLock().unlock();
+			}
+		}
+		jsonWriter.endArray();
+	}
+
+	// EventIds of the file, or only of the events which have the car with CarId
+	private String listEvents(JsonElement id, JsonObject params) throws IOException {
+		ModelObject modelObj = getModel(params);
+		modelObj.getLock().readLock().lock();
+		try {
+			Iterable<Integer> eventIds = params.has("CarId")
+					? modelObj.getCarEventIds(EventCarListNames.resolveCarId(params.get("CarId").getAsString()))
+					: modelObj.getEventsMap().keySet();
+			return writeResult(id, jsonWriter -> {
+				jsonWriter.beginArray();
+				for (int eventId : eventIds) {
+					jsonWriter.value(EventCarListEditor.intToHexString(eventId, byteArraySize));
+				}
+				jsonWriter.endArray();
+			});
+		} finally {
+			modelObj.getLock().readLock().unlock();
+		}
+	}
+
+	private String getEvent(JsonElement id, JsonObject params) throws IOException {
+		ModelObject modelObj = getModel(params);
+		modelObj.getLock().readLock().lock();
+		try {
+			EventCarListEditor.EventEntryObject eventObj = modelObj.getEventsMap().get(getEventId(params));
+			if (eventObj == null) {
+				return writeError(id, invalidParamsCode, "Event " + params.get("EventId").getAsString() + " is not found");
+			}
+			return writeResult(id, jsonWriter -> EventCarListEditor.eventJsonAdapter.write(jsonWriter, eventObj));
+		} finally {
+			modelObj.getLock().readLock().unlock();
+		}
+	}
+
+	// Event object goes as in the events JSON, it replaces the event with the same EventId or is added at the end
+	private String editEvent(JsonElement id, JsonObject params) throws IOException {
+		ModelObject modelObj = getModel(params);
+		if (!params.has("Event")) {
+			throw new IllegalArgumentException("Event is missing");
+		}
+		EventCarListEditor.EventEntryObject eventObj =
+				EventCarListEditor.eventJsonAdapter.fromJsonTree(params.get("Event"));
+		checkEvent(eventObj);
+		boolean isAdded;
+		modelObj.getLock().writeLock().lock();
+		try {
+			isAdded = modelObj.putEvent(eventObj);
+		} finally {
+			modelObj.getLock().writeLock().unlock();
+		}
+		return writeResult(id, jsonWriter -> jsonWriter.value(isAdded ? "added" : "changed"));
+	}
+
+	// Same checks as on validate, so the save doesn't fail on the bad event later
+	private static void checkEvent(EventCarListEditor.EventEntryObject eventObj) {
+		EventCarListValidator validator = new EventCarListValidator(new EventCarListEditor.DatLayoutObject());
+		validator.validateEventObject(eventObj, "$.params.Event");
+		if (!validator.isValid()) {
+			throw new IllegalArgumentException(String.join("; ", validator.getErrorsList()));
+		}
+	}
+
+	// Output is the loaded file by default, in its format. Edits wait for the save, other readers don't
+	private String saveFile(JsonElement id, JsonObject params) throws IOException {
+		ModelObject modelObj = getModel(params);
+		String outputPath = params.has("Output") ? params.get("Output").getAsString() : modelObj.getSavePath();
+		checkOutputFolder(modelObj, outputPath);
+		modelObj.getSaveLock().lock();
+		modelObj.getLock().readLock().lock();
+		try {
+			List<EventCarListEditor.EventEntryObject> eventsList = new ArrayList<>(modelObj.getEventsMap().values());
+			eventCarListEd.validateEventsList(eventsList);
+			Path outputFile;
+			if (isDatPath(outputPath)) {
+				eventCarListEd.writeDatFileOutput(eventsList, outputPath);
+				outputFile = Paths.get(outputPath);
+			} else {
+				String outputName = outputPath.toLowerCase().endsWith(".json") 
+						? outputPath.substring(0, outputPath.length() - ".json".length()) : outputPath;
+				eventCarListEd.writeJsonOutput(eventsList, outputName);
+				outputFile = Paths.get(outputName + ".json");
+			}
+			System.out.println("### Saved " + outputFile + ": " + eventsList.size() + " events.");
+			if (isSameFile(outputFile, Paths.get(modelObj.getSavePath()))) {
+				modelObj.setChanged(false);
+			}
+			return writeResult(id, jsonWriter -> jsonWriter.value(eventsList.size()));
+		} finally {
+			modelObj.getLock().readLock().unlock();
+			modelObj.getSaveLock().unlock();
+		}
+	}
+
+	// Output goes only next to the loaded file, requests can't write anywhere else
+	private static void checkOutputFolder(ModelObject modelObj, String outputPath) {
+		Path folder = Paths.get(modelObj.getSavePath()).toAbsolutePath().normalize().getParent();
+		Path outputFolder = Paths.get(outputPath).toAbsolutePath().normalize().getParent();
+		if (!folder.equals(outputFolder)) {
+			throw new IllegalArgumentException("Output must be in the folder of the loaded file: " + folder);
+		}
+	}
+
+	private static boolean isDatPath(String filePath) {
+		return filePath.toLowerCase().endsWith(".dat") || EventCarListBundle.isBundleFile(filePath);
+	}
+
+	private static boolean isSameFile(Path file, Path otherFile) {
+		return file.toAbsolutePath().normalize().equals(otherFile.toAbsolutePath().normalize());
+	}
+
+	// File param could be skipped if only one file is loaded
+	private ModelObject getModel(JsonObject params) {
+		if (!params.has("File") && modelsMap.size() == 1) {
+			return modelsMap.values().iterator().next();
+		}
+		if (!params.has("File")) {
+			throw new IllegalArgumentException("File is missing");
+		}
+		ModelObject modelObj = modelsMap.get(params.get("File").getAsString());
+		if (modelObj == null) {
+			throw new IllegalArgumentException("File " + params.get("File").getAsString() + " is not loaded");
+		}
+		return modelObj;
+	}
+
+	private static int getEventId(JsonObject params) {
+		if (!params.has("EventId")) {
+			throw new IllegalArgumentException("EventId is missing");
+		}
+		return EventCarListNames.resolveEventId(params.get("EventId").getAsString());
+	}
+
+	private static String writeResult(JsonElement id, ResultWriter resultWriter) throws IOException {
+		StringWriter stringWriter = new StringWriter();
+		JsonWriter jsonWriter = new JsonWriter(stringWriter);
+		jsonWriter.setHtmlSafe(false);
+		jsonWriter.beginObject();
+		jsonWriter.name("jsonrpc").value("2.0");
+		writeId(jsonWriter, id);
+		jsonWriter.name("result");
+		resultWriter.write(jsonWriter);
+		jsonWriter.endObject();
+		jsonWriter.flush();
+		return stringWriter.toString();
+	}
+
+	private static String writeError(JsonElement id, int code, String message) throws IOException {
+		StringWriter stringWriter = new StringWriter();
+		JsonWriter jsonWriter = new JsonWriter(stringWriter);
+		jsonWriter.setHtmlSafe(false);
+		jsonWriter.beginObject();
+		jsonWriter.name("jsonrpc").value("2.0");
+		writeId(jsonWriter, id);
+		jsonWriter.name("error").beginObject();
+		jsonWriter.name("code").value(code);
+		jsonWriter.name("message").value(message);
+		jsonWriter.endObject();
+		jsonWriter.endObject();
+		jsonWriter.flush();
+		return stringWriter.toString();
+	}
+
+	// Gson skips nulls, but the error on a bad request must still have "id": null
+	private static void writeId(JsonWriter jsonWriter, JsonElement id) throws IOException {
+		jsonWriter.name("id");
+		if (id.isJsonNull()) {
+			jsonWriter.nullValue();
+		} else {
+			EventCarListEditor.getGson().toJson(id, jsonWriter);
+		}
+	}
+
+	//
+	// Objects
+	//
+
+	private interface ResultWriter {
+		void write(JsonWriter jsonWriter) throws IOException;
+	}
+
+	// Events of one file by EventId (in the file order), and EventIds by CarId.
+	// Event objects are never changed after they are put here, edits put the new objects.
+	// Save path is the loaded file itself, JSON could be loaded by the name without .json
+	public static class ModelObject {
+		private final String filePath;
+		private final String savePath;
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private final Lock saveLock = new ReentrantLock();
+		private final Map<Integer, EventCarListEditor.EventEntryObject> eventsMap = new LinkedHashMap<>();
+		private final Map<Integer, Set<Integer>> carEventIdsMap = new HashMap<>();
+		private volatile boolean isChanged = false;
+
+		public ModelObject(String filePath) {
+			this.filePath = filePath;
+			this.savePath = isDatPath(filePath) || filePath.toLowerCase().endsWith(".json") 
+					? filePath : filePath + ".json";
+		}
+
+		public String getFilePath() {
+			return filePath;
+		}
+
+		public String getSavePath() {
+			return savePath;
+		}
+
+		public ReadWriteLock getLock() {
+			return lock;
+		}
+
+		public Lock getSaveLock() {
+			return saveLock;
+		}
+
+		public Map<Integer, EventCarListEditor.EventEntryObject> getEventsMap() {
+			return eventsMap;
+		}
+
+		public int getEventsCount() {
+			return eventsMap.size();
+		}
+
+		public boolean isChanged() {
+			return isChanged;
+		}
+
+		public void setChanged(boolean isChanged) {
+			this.isChanged = isChanged;
+		}
+
+		public Set<Integer> getCarEventIds(int carId) {
+			return carEventIdsMap.getOrDefault(carId, new LinkedHashSet<>());
+		}
+
+		// Returns false if the EventId is already used, the event is not added then
+		public boolean addEvent(EventCarListEditor.EventEntryObject eventObj) {
+			if (eventsMap.putIfAbsent(eventObj.getEventId(), eventObj) != null) return false;
+			addCarEventIds(eventObj);
+			return true;
+		}
+
+		// Returns true if the event is new
+		public boolean putEvent(EventCarListEditor.EventEntryObject eventObj) {
+			EventCarListEditor.EventEntryObject oldEventObj = eventsMap.put(eventObj.getEventId(), eventObj);
+			if (oldEventObj != null) {
+				for (EventCarListEditor.CarEntryObject carObj : oldEventObj.getCarEntriesList()) {
+					// Event could have several cars with the same CarId, the set is gone after the first one
+					carEventIdsMap.computeIfPresent(carObj.getCarId(), (carId, eventIds) -> {
+						eventIds.remove(oldEventObj.getEventId());
+						return eventIds.isEmpty() ? null : eventIds;
+					});
+				}
+			}
+			addCarEventIds(eventObj);
+			isChanged = true;
+			return oldEventObj == null;
+		}
+
+		private void addCarEventIds(EventCarListEditor.EventEntryObject eventObj) {
+			for (EventCarListEditor.CarEntryObject carObj : eventObj.getCarEntriesList()) {
+				carEventIdsMap.computeIfAbsent(carObj.getCarId(), carId -> new LinkedHashSet<>()).add(eventObj.getEventId());
+			}
+		}
+	}
+}
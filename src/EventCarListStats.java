@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.gson.stream.JsonWriter;
+
+// Phase timings, amount of data and entries, and allocated memory of the tool run (-stats option).
+// Editor can be used by several batch threads, so everything is added under the lock
+public class EventCarListStats {
+
+	public static final String phaseRead = "read";
+	public static final String phaseOffsetScan = "offset scan";
+	public static final String phaseEventDecode = "event decode";
+	public static final String phaseJsonWrite = "JSON write";
+	public static final String phaseJsonRead = "JSON read";
+	public static final String phaseLayout = "layout";
+	public static final String phaseEncode = "encode";
+	public static final String phaseFileWrite = "file write";
+
+	private final long startTime = System.nanoTime();
+	private final Map<String, Long> phaseTimesMap = new LinkedHashMap<>();
+	private final Map<String, Long> allocatedBytesMap = new LinkedHashMap<>();
+	private long bytesRead = 0;
+	private long bytesWritten = 0;
+	// Decoded from .dat and encoded into .dat: events, cars, PartUnlock IDs
+	private final long[] decodedCounts = new long[3];
+	private final long[] encodedCounts = new long[3];
+
+	public synchronized void addPhaseTime(String phase, long nanos) {
+		phaseTimesMap.merge(phase, nanos, Long::sum);
+	}
+
+	public synchronized void addBytesRead(long bytesCount) {
+		bytesRead += bytesCount;
+	}
+
+	public synchronized void addBytesWritten(long bytesCount) {
+		bytesWritten += bytesCount;
+	}
+
+	public synchronized void addDecodedEntries(int eventsCount, int carsCount, int partUnlocksCount) {
+		addCounts(decodedCounts, eventsCount, carsCount, partUnlocksCount);
+	}
+
+	public synchronized void addEncodedEntries(int eventsCount, int carsCount, int partUnlocksCount) {
+		addCounts(encodedCounts, eventsCount, carsCount, partUnlocksCount);
+	}
+
+	private static void addCounts(long[] counts, int eventsCount, int carsCount, int partUnlocksCount) {
+		counts[0] += eventsCount;
+		counts[1] += carsCount;
+		counts[2] += partUnlocksCount;
+	}
+
+	// Allocated bytes of the current thread, -1 if JVM can't tell it
+	public static long getThreadAllocatedBytes() {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) return -1;
+		com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+		if (!sunThreadBean.isThreadAllocatedMemorySupported() || !sunThreadBean.isThreadAllocatedMemoryEnabled()) return -1;
+		return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	// Takes the value from getThreadAllocatedBytes, taken on the same thread before the work
+	public synchronized void addThreadAllocatedBytes(long startAllocatedBytes) {
+		long endAllocatedBytes = getThreadAllocatedBytes();
+		if (startAllocatedBytes == -1 || endAllocatedBytes == -1) return;
+		allocatedBytesMap.merge(Thread.currentThread().getName(), endAllocatedBytes - startAllocatedBytes, Long::sum);
+	}
+
+	public synchronized void printStats() {
+		System.out.println("### Stats, total time: " + formatMs(System.nanoTime() - startTime) + " ms");
+		for (Map.Entry<String, Long> phaseTime : phaseTimesMap.entrySet()) {
+			System.out.println("###   " + phaseTime.getKey() + ": " + formatMs(phaseTime.getValue()) + " ms");
+		}
+		System.out.println("###   bytes read: " + bytesRead + ", bytes written: " + bytesWritten);
+		System.out.println("###   decoded: " + decodedCounts[0] + " events, " + decodedCounts[1] + " cars, "
+				+ decodedCounts[2] + " PartUnlock IDs");
+		System.out.println("###   encoded: " + encodedCounts[0] + " events, " + encodedCounts[1] + " cars, "
+				+ encodedCounts[2] + " PartUnlock IDs");
+		for (Map.Entry<String, Long> allocatedBytes : allocatedBytesMap.entrySet()) {
+			System.out.println("###   allocated on " + allocatedBytes.getKey() + ": " + allocatedBytes.getValue() + " bytes");
+		}
+	}
+
+	// Same values for the scripts, times are in milliseconds
+	public synchronized void writeStatsJson(String outputPath) throws IOException {
+		try (JsonWriter jsonWriter = new JsonWriter(
+				Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8))) {
+			jsonWriter.setIndent("  ");
+			jsonWriter.beginObject();
+			jsonWriter.name("totalMs").value(toMs(System.nanoTime() - startTime));
+			jsonWriter.name("phasesMs").beginObject();
+			for (Map.Entry<String, Long> phaseTime : phaseTimesMap.entrySet()) {
+				jsonWriter.name(phaseTime.getKey()).value(toMs(phaseTime.getValue()));
+			}
+			jsonWriter.endObject();
+			jsonWriter.name("bytesRead").value(bytesRead);
+			jsonWriter.name("bytesWritten").value(bytesWritten);
+			writeCountsJson(jsonWriter, "decoded", decodedCounts);
+			writeCountsJson(jsonWriter, "encoded", encodedCounts);
+			jsonWriter.name("allocatedBytes").beginObject();
+			for (Map.Entry<String, Long> allocatedBytes : allocatedBytesMap.entrySet()) {
+				jsonWriter.name(allocatedBytes.getKey()).value(allocatedBytes.getValue());
+			}
+			jsonWriter.endObject();
+			jsonWriter.endObject();
+		}
+	}
+
+	private static void writeCountsJson(JsonWriter jsonWriter, String name, long[] counts) throws IOException {
+		jsonWriter.name(name).beginObject();
+		jsonWriter.name("events").value(counts[0]);
+		jsonWriter.name("cars").value(counts[1]);
+		jsonWriter.name("partUnlockIds").value(counts[2]);
+		jsonWriter.endObject();
+	}
+
+	private static double toMs(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	private static String formatMs(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", toMs(nanos));
+	}
+}
@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+// Bulk edits by the rule file (transform command): each rule selects events by EventId or by the list file
+// (docs/EventIDs.txt lines, with an optional text like "Circuit"), and cars by their field values.
+// Selected cars get the new field values, and selected events can get the PartUnlock ID which they don't have.
+// All rules go in one pass over the events. If rules don't change the layout, .dat file is edited in place:
+// only changed events are encoded again, on the same offsets
+public class EventCarListTransformer {
+
+	private static final int byteArraySize = 4;
+	private static final int byteSmallArraySize = 2;
+	private static final int ffArraySize = 12;
+
+	private final EventCarListEditor eventCarListEd;
+	private final List<RuleObject> rulesList = new ArrayList<>();
+
+	public EventCarListTransformer(EventCarListEditor eventCarListEd) {
+		this.eventCarListEd = eventCarListEd;
+	}
+
+	public List<RuleObject> getRulesList() {
+		return rulesList;
+	}
+
+	// Output is .dat or .BNDL file, or JSON (name without .json), like on merge
+	public void transformFile(String inputPath, String rulesPath, String outputName, boolean isCompactJson)
+			throws IOException {
+		readRulesFile(rulesPath);
+		boolean isDatInput = inputPath.toLowerCase().endsWith(".dat") || EventCarListBundle.isBundleFile(inputPath);
+		boolean isDatOutput = outputName.toLowerCase().endsWith(".dat") || EventCarListBundle.isBundleFile(outputName);
+		if (isDatInput && isDatOutput && !isLayoutChanged()) {
+			int changedCount = eventCarListEd.editDatFileInPlace(inputPath, outputName, this::applyRules);
+			printReport();
+			System.out.println("### .dat-file has been transformed in place, " + changedCount + " events changed.");
+			return;
+		}
+		List<EventCarListEditor.EventEntryObject> eventsList = new ArrayList<>();
+		eventCarListEd.readEventsFile(inputPath, eventObj -> {
+			applyRules(eventObj);
+			eventsList.add(eventObj);
+		});
+		printReport();
+		eventCarListEd.validateEventsList(eventsList); // Rules could set PartUnlockTypeIndex out of the arrays
+		if (isDatOutput) {
+			eventCarListEd.writeDatFileOutput(eventsList, outputName);
+		} else {
+			eventCarListEd.writeJsonOutput(eventsList, outputName, isCompactJson);
+		}
+	}
+
+	// Only added PartUnlock IDs change the size of events
+	private boolean isLayoutChanged() {
+		for (RuleObject ruleObj : rulesList) {
+			if (ruleObj.getAddPartUnlockId() != null) return true;
+		}
+		return false;
+	}
+
+	// Returns true if anything is changed in the event
+	public boolean applyRules(EventCarListEditor.EventEntryObject eventObj) {
+		boolean isChanged = false;
+		for (RuleObject ruleObj : rulesList) {
+			if (ruleObj.hasEventFilter() && !ruleObj.getEventIdsSet().contains(eventObj.getEventId())) {
+				continue;
+			}
+			boolean isEventMatched = ruleObj.getWhereList().isEmpty();
+			List<EventCarListEditor.CarEntryObject> carEntriesList = eventObj.getCarEntriesList();
+			for (int i = 0; i < carEntriesList.size(); i++) {
+				EventCarListEditor.CarEntryObject carObj = carEntriesList.get(i);
+				if (!isCarMatched(carObj, ruleObj.getWhereList())) continue;
+				isEventMatched = true;
+				ruleObj.matchedCarsCount++;
+				if (ruleObj.getSetList().isEmpty()) continue;
+				EventCarListEditor.CarEntryObject newCarObj = copyCar(carObj);
+				for (CarFieldObject fieldObj : ruleObj.getSetList()) {
+					setCarField(newCarObj, fieldObj);
+				}
+				if (!newCarObj.equals(carObj)) {
+					carEntriesList.set(i, newCarObj); // Car could be shared with the merged or cached lists
+					ruleObj.changedCarsCount++;
+					isChanged = true;
+				}
+			}
+			if (!isEventMatched) continue;
+			ruleObj.matchedEventsCount++;
+			if (ruleObj.getAddPartUnlockId() != null && !hasPartUnlockId(eventObj, ruleObj.getAddPartUnlockId())) {
+				short[] partUnlockIds = Arrays.copyOf(eventObj.getPartUnlockIds(), eventObj.getPartUnlockIds().length + 1);
+				partUnlockIds[partUnlockIds.length - 1] = ruleObj.getAddPartUnlockId();
+				eventObj.setPartUnlockIds(partUnlockIds);
+				ruleObj.addedPartUnlocksCount++;
+				isChanged = true;
+			}
+		}
+		return isChanged;
+	}
+
+	private void printReport() {
+		for (int i = 0; i < rulesList.size(); i++) {
+			RuleObject ruleObj = rulesList.get(i);
+			String report = "### Rule " + (i + 1) + (ruleObj.getName() != null ? " (" + ruleObj.getName() + ")" : "")
+					+ ": " + ruleObj.matchedEventsCount + " events and " + ruleObj.matchedCarsCount + " cars matched, "
+					+ ruleObj.changedCarsCount + " cars changed";
+			if (ruleObj.getAddPartUnlockId() != null) {
+				report += ", PartUnlock ID added to " + ruleObj.addedPartUnlocksCount + " events";
+			}
+			System.out.println(report + ".");
+		}
+	}
+
+	private static boolean isCarMatched(EventCarListEditor.CarEntryObject carObj, List<CarFieldObject> whereList) {
+		for (CarFieldObject fieldObj : whereList) {
+			if (fieldObj.getName().equals("TheFFArray")) {
+				if (!Arrays.equals(carObj.getTheFFArray(), fieldObj.getArrayValue())) return false;
+			} else if (getCarField(carObj, fieldObj.getName()) != fieldObj.getValue()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int getCarField(EventCarListEditor.CarEntryObject carObj, String name) {
+		switch (name) {
+		case "CarId": return carObj.getCarId();
+		case "UnknownArray1": return carObj.getUnknownArray1();
+		case "PartUnlockTypeIndex": return carObj.getPartUnlockTypeIndex();
+		case "PartsAmountId": return carObj.getPartsAmountId();
+		case "DifficultyId": return carObj.getDifficultyId();
+		default: throw new IllegalArgumentException("Unknown car field: " + name);
+		}
+	}
+
+	private static void setCarField(EventCarListEditor.CarEntryObject carObj, CarFieldObject fieldObj) {
+		switch (fieldObj.getName()) {
+		case "CarId": carObj.setCarId(fieldObj.getValue()); break;
+		case "UnknownArray1": carObj.setUnknownArray1(fieldObj.getValue()); break;
+		case "PartUnlockTypeIndex": carObj.setPartUnlockTypeIndex(fieldObj.getValue()); break;
+		case "TheFFArray": carObj.setTheFFArray(fieldObj.getArrayValue()); break;
+		case "PartsAmountId": carObj.setPartsAmountId(fieldObj.getValue()); break;
+		case "DifficultyId": carObj.setDifficultyId(fieldObj.getValue()); break;
+		default: throw new IllegalArgumentException("Unknown car field: " + fieldObj.getName());
+		}
+	}
+
+	private static EventCarListEditor.CarEntryObject copyCar(EventCarListEditor.CarEntryObject carObj) {
+		EventCarListEditor.CarEntryObject newCarObj = new EventCarListEditor.CarEntryObject();
+		newCarObj.setCarId(carObj.getCarId());
+		newCarObj.setUnknownArray1(carObj.getUnknownArray1());
+		newCarObj.setPartUnlockTypeIndex(carObj.getPartUnlockTypeIndex());
+		newCarObj.setTheFFArray(carObj.getTheFFArray());
+		newCarObj.setPartsAmountId(carObj.getPartsAmountId());
+		newCarObj.setDifficultyId(carObj.getDifficultyId());
+		return newCarObj;
+	}
+
+	private static boolean hasPartUnlockId(EventCarListEditor.EventEntryObject eventObj, short partUnlockId) {
+		for (short curPartUnlockId : eventObj.getPartUnlockIds()) {
+			if (curPartUnlockId == partUnlockId) return true;
+		}
+		return false;
+	}
+
+	//
+	// Rules file
+	//
+
+	// Array of rules, values are written as in the events JSON:
+	// [{"Name": "Harder circuits", "EventList": "docs/EventIDs.txt", "EventListMatch": "Circuit",
+	//   "Where": {"CarId": "283FEFC6"}, "Set": {"DifficultyId": "03000000"}, "AddPartUnlockId": "0100"}]
+	public void readRulesFile(String rulesPath) throws IOException {
+		try (JsonReader jsonReader = new JsonReader(Files.newBufferedReader(Paths.get(rulesPath), StandardCharsets.UTF_8))) {
+			jsonReader.beginArray();
+			while (jsonReader.hasNext()) {
+				rulesList.add(readRule(jsonReader));
+			}
+			jsonReader.endArray();
+		}
+	}
+
+	private RuleObject readRule(JsonReader jsonReader) throws IOException {
+		RuleObject ruleObj = new RuleObject();
+		String eventListPath = null;
+		String eventListMatch = null;
+		jsonReader.beginObject();
+		while (jsonReader.hasNext()) {
+			String name = jsonReader.nextName();
+			switch (name) {
+			case "Name":
+				ruleObj.setName(jsonReader.nextString()); break;
+			case "EventIds":
+				ruleObj.setEventFilter(true);
+				jsonReader.beginArray();
+				while (jsonReader.hasNext()) {
+					ruleObj.getEventIdsSet().add(readHexValue(jsonReader, byteArraySize));
+				}
+				jsonReader.endArray();
+				break;
+			case "EventList":
+				ruleObj.setEventFilter(true);
+				eventListPath = jsonReader.nextString(); break;
+			case "EventListMatch":
+				eventListMatch = jsonReader.nextString(); break;
+			case "Where":
+				readCarFields(jsonReader, ruleObj.getWhereList()); break;
+			case "Set":
+				readCarFields(jsonReader, ruleObj.getSetList()); break;
+			case "AddPartUnlockId":
+				ruleObj.setAddPartUnlockId((short) readHexValue(jsonReader, byteSmallArraySize)); break;
+			default:
+				throw new IOException("Unknown rule field: " + jsonReader.getPath());
+			}
+		}
+		jsonReader.endObject();
+		if (eventListPath != null) {
+			for (String eventIdStr : EventCarListEditor.readEventIdsList(eventListPath, eventListMatch)) {
+				ruleObj.getEventIdsSet().add(EventCarListEditor.decodeHexInt(eventIdStr));
+			}
+		}
+		// Event filter which selects nothing is a mistake (like a typo in EventListMatch), not "all events"
+		if (ruleObj.hasEventFilter() && ruleObj.getEventIdsSet().isEmpty()) {
+			throw new IOException("Rule " + (rulesList.size() + 1) + " selects no events" + (eventListPath != null 
+					? " from " + eventListPath + (eventListMatch != null ? " with \"" + eventListMatch + "\"" : "") : "")
+					+ ": $[" + rulesList.size() + "]");
+		}
+		return ruleObj;
+	}
+
+	private static void readCarFields(JsonReader jsonReader, List<CarFieldObject> fieldsList) throws IOException {
+		jsonReader.beginObject();
+		while (jsonReader.hasNext()) {
+			String name = jsonReader.nextName();
+			CarFieldObject fieldObj = new CarFieldObject(name);
+			switch (name) {
+			case "PartUnlockTypeIndex":
+				fieldObj.setValue(jsonReader.nextInt()); break;
+			case "TheFFArray":
+				String hexStr = jsonReader.nextString();
+				checkHexValue(jsonReader, hexStr, ffArraySize);
+				byte[] arrayValue = new byte[ffArraySize];
+				for (int i = 0; i < ffArraySize; i++) {
+					arrayValue[i] = (byte) EventCarListEditor.decodeHexInt(hexStr.substring(i * 2, i * 2 + 2));
+				}
+				fieldObj.setArrayValue(arrayValue);
+				break;
+			case "CarId":
+			case "UnknownArray1":
+			case "PartsAmountId":
+			case "DifficultyId":
+				fieldObj.setValue(readHexValue(jsonReader, byteArraySize)); break;
+			default:
+				throw new IOException("Unknown car field: " + jsonReader.getPath());
+			}
+			fieldsList.add(fieldObj);
+		}
+		jsonReader.endObject();
+	}
+
+	private static int readHexValue(JsonReader jsonReader, int size) throws IOException {
+		if (jsonReader.peek() != JsonToken.STRING) {
+			throw new IOException("Hex string is expected: " + jsonReader.getPath());
+		}
+		String hexStr = jsonReader.nextString();
+		checkHexValue(jsonReader, hexStr, size);
+		return EventCarListEditor.decodeHexInt(hexStr);
+	}
+
+	private static void checkHexValue(JsonReader jsonReader, String hexStr, int size) throws IOException {
+		boolean isValid = hexStr.length() == size * 2;
+		for (int i = 0; isValid && i < hexStr.length(); i++) {
+			isValid = Character.digit(hexStr.charAt(i), 16) != -1;
+		}
+		if (!isValid) {
+			throw new IOException("\"" + hexStr + "\" must be " + size * 2 + " hex digits: " + jsonReader.getPath());
+		}
+	}
+
+	//
+	// Objects
+	//
+
+	// Rule without EventIds or EventList is for all events, empty Where means all cars of the selected events
+	public static class RuleObject {
+		private String name;
+		private boolean hasEventFilter = false;
+		private final Set<Integer> eventIdsSet = new HashSet<>();
+		private final List<CarFieldObject> whereList = new ArrayList<>();
+		private final List<CarFieldObject> setList = new ArrayList<>();
+		private Short addPartUnlockId;
+		private int matchedEventsCount;
+		private int matchedCarsCount;
+		private int changedCarsCount;
+		private int addedPartUnlocksCount;
+
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public boolean hasEventFilter() {
+			return hasEventFilter;
+		}
+		public void setEventFilter(boolean hasEventFilter) {
+			this.hasEventFilter = hasEventFilter;
+		}
+
+		public Set<Integer> getEventIdsSet() {
+			return eventIdsSet;
+		}
+
+		public List<CarFieldObject> getWhereList() {
+			return whereList;
+		}
+
+		public List<CarFieldObject> getSetList() {
+			return setList;
+		}
+
+		public Short getAddPartUnlockId() {
+			return addPartUnlockId;
+		}
+		public void setAddPartUnlockId(Short addPartUnlockId) {
+			this.addPartUnlockId = addPartUnlockId;
+		}
+
+		public int getMatchedEventsCount() {
+			return matchedEventsCount;
+		}
+
+		public int getMatchedCarsCount() {
+			return matchedCarsCount;
+		}
+
+		public int getChangedCarsCount() {
+			return changedCarsCount;
+		}
+
+		public int getAddedPartUnlocksCount() {
+			return addedPartUnlocksCount;
+		}
+	}
+
+	// Value of the car field, TheFFArray is kept as bytes
+	public static class CarFieldObject {
+		private final String name;
+		private int value;
+		private byte[] arrayValue;
+
+		public CarFieldObject(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getValue() {
+			return value;
+		}
+		public void setValue(int value) {
+			this.value = value;
+		}
+
+		public byte[] getArrayValue() {
+			return arrayValue;
+		}
+		public void setArrayValue(byte[] arrayValue) {
+			this.arrayValue = arrayValue;
+		}
+	}
+}
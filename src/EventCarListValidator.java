@@ -0,0 +1,259 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+// Checks the whole JSON before anything is written: field names and types, hex values and their sizes,
+// PartUnlockTypeIndex bounds, amount of cars, duplicate EventIds and the file size limit.
+// All problems are collected with their JSON paths, and the layout of events is counted on the same pass
+public class EventCarListValidator {
+
+	public static final int maxCarsCount = 255; // Cars count is read as a single byte
+	public static final int maxFileSize = 0xFFFFFF; // Bottom index keeps only 3 bytes of the offset
+	private static final String[] carFieldNames = {"CarId", "UnknownArray1", "PartUnlockTypeIndex", 
+			"TheFFArray", "PartsAmountId", "DifficultyId"};
+
+	private final EventCarListEditor.DatLayoutObject datLayout;
+	private final List<String> errorsList = new ArrayList<>();
+	private final Map<String, String> eventIdPathsMap = new HashMap<>();
+
+	public EventCarListValidator(EventCarListEditor.DatLayoutObject datLayout) {
+		this.datLayout = datLayout;
+	}
+
+	public List<String> getErrorsList() {
+		return errorsList;
+	}
+
+	public boolean isValid() {
+		return errorsList.isEmpty();
+	}
+
+	public void validateEvents(JsonReader jsonReader) throws IOException {
+		try {
+			if (!checkToken(jsonReader, JsonToken.BEGIN_ARRAY, "array of events")) return;
+			jsonReader.beginArray();
+			while (jsonReader.hasNext()) {
+				validateEvent(jsonReader);
+			}
+			jsonReader.endArray();
+		} catch (MalformedJsonException | EOFException | IllegalStateException e) {
+			errorsList.add(jsonReader.getPath() + ": JSON syntax error, " + e.getMessage());
+			return;
+		}
+		checkFileSize();
+	}
+
+	// Same checks for the decoded events (watch, merge, serve), paths are the same as in JSON
+	public void validateEventsList(List<EventCarListEditor.EventEntryObject> eventsList) {
+		for (int i = 0; i < eventsList.size(); i++) {
+			validateEventObject(eventsList.get(i), "$[" + i + "]");
+		}
+		checkFileSize();
+	}
+
+	public void validateEventObject(EventCarListEditor.EventEntryObject eventObj, String eventPath) {
+		String eventIdStr = EventCarListEditor.intToHexString(eventObj.getEventId(), 4);
+		String firstPath = eventIdPathsMap.putIfAbsent(eventIdStr, eventPath + ".EventId");
+		if (firstPath != null) {
+			errorsList.add(eventPath + ".EventId: EventId " + eventIdStr + " is already used on " + firstPath);
+		}
+		validateEventEntries(eventObj, eventPath);
+		datLayout.addEvent(eventObj.getCarEntriesList().size(), eventObj.getPartUnlockIds().length);
+	}
+
+	// Cars and their PartUnlockTypeIndex only, for the events which are edited in place
+	public void validateEventEntries(EventCarListEditor.EventEntryObject eventObj, String eventPath) {
+		int carsCount = eventObj.getCarEntriesList().size();
+		int partUnlocksCount = eventObj.getPartUnlockIds().length;
+		checkCarsCount(eventPath, carsCount);
+		for (int i = 0; i < carsCount; i++) {
+			checkPartUnlockTypeIndex(eventPath + ".Cars[" + i + "].PartUnlockTypeIndex", 
+					eventObj.getCarEntriesList().get(i).getPartUnlockTypeIndex(), partUnlocksCount);
+		}
+	}
+
+	void checkFileSize() {
+		if (datLayout.getFileSize() > maxFileSize) {
+			errorsList.add("$: .dat file would be " + datLayout.getFileSize() + " bytes, but only "
+					+ maxFileSize + " bytes are supported");
+		}
+	}
+
+	void checkCarsCount(String eventPath, int carsCount) {
+		if (carsCount > maxCarsCount) {
+			errorsList.add(eventPath + ".Cars: " + carsCount + " cars, but only " + maxCarsCount + " are supported");
+		}
+	}
+
+	void checkPartUnlockTypeIndex(String path, int partUnlockTypeIndex, int partUnlocksCount) {
+		boolean isOutOfBounds = partUnlocksCount == 0 ? partUnlockTypeIndex != 0
+				: partUnlockTypeIndex < 0 || partUnlockTypeIndex >= partUnlocksCount;
+		if (isOutOfBounds) {
+			errorsList.add(path + ": " + partUnlockTypeIndex + " is out of PartUnlockIds, event has " 
+					+ partUnlocksCount + " of them");
+		}
+	}
+
+	private void validateEvent(JsonReader jsonReader) throws IOException {
+		String eventPath = jsonReader.getPath();
+		if (!checkToken(jsonReader, JsonToken.BEGIN_OBJECT, "event object")) return;
+		boolean hasEventId = false;
+		int carsCount = 0;
+		int partUnlocksCount = 0;
+		List<Integer> partUnlockTypeIndexes = new ArrayList<>();
+		List<String> partUnlockTypeIndexPaths = new ArrayList<>();
+		jsonReader.beginObject();
+		while (jsonReader.hasNext()) {
+			String name = jsonReader.nextName();
+			String path = jsonReader.getPath();
+			switch (name) {
+			case "EventId":
+				hasEventId = true;
+				String eventIdStr = readIdValue(jsonReader, 4, EventCarListNames::resolveEventId);
+				if (eventIdStr != null) {
+					String firstPath = eventIdPathsMap.putIfAbsent(eventIdStr.toUpperCase(), path);
+					if (firstPath != null) {
+						errorsList.add(path + ": EventId " + eventIdStr + " is already used on " + firstPath);
+					}
+				}
+				break;
+			case "Cars":
+				if (!checkToken(jsonReader, JsonToken.BEGIN_ARRAY, "array of cars")) break;
+				jsonReader.beginArray();
+				while (jsonReader.hasNext()) {
+					validateCar(jsonReader, partUnlockTypeIndexes, partUnlockTypeIndexPaths);
+					carsCount++;
+				}
+				jsonReader.endArray();
+				break;
+			case "PartUnlockIds":
+				if (!checkToken(jsonReader, JsonToken.BEGIN_ARRAY, "array of PartUnlock IDs")) break;
+				jsonReader.beginArray();
+				while (jsonReader.hasNext()) {
+					readIdValue(jsonReader, 2, EventCarListNames::resolvePartUnlockId);
+					partUnlocksCount++;
+				}
+				jsonReader.endArray();
+				break;
+			case "EventName":
+			case "PartUnlockNames":
+				jsonReader.skipValue(); // Written by unpack with -names, only for reading
+				break;
+			default:
+				errorsList.add(path + ": unknown field");
+				jsonReader.skipValue();
+				break;
+			}
+		}
+		jsonReader.endObject();
+
+		if (!hasEventId) {
+			errorsList.add(eventPath + ": EventId is missing");
+		}
+		checkCarsCount(eventPath, carsCount);
+		for (int i = 0; i < partUnlockTypeIndexes.size(); i++) {
+			checkPartUnlockTypeIndex(partUnlockTypeIndexPaths.get(i), partUnlockTypeIndexes.get(i), partUnlocksCount);
+		}
+		datLayout.addEvent(carsCount, partUnlocksCount);
+	}
+
+	private void validateCar(JsonReader jsonReader, List<Integer> partUnlockTypeIndexes,
+			List<String> partUnlockTypeIndexPaths) throws IOException {
+		String carPath = jsonReader.getPath();
+		if (!checkToken(jsonReader, JsonToken.BEGIN_OBJECT, "car object")) return;
+		int fieldsMask = 0;
+		jsonReader.beginObject();
+		while (jsonReader.hasNext()) {
+			String name = jsonReader.nextName();
+			String path = jsonReader.getPath();
+			switch (name) {
+			case "CarId":
+				fieldsMask |= 1;
+				readIdValue(jsonReader, 4, EventCarListNames::resolveCarId); break;
+			case "UnknownArray1":
+				fieldsMask |= 2;
+				readHexValue(jsonReader, 4); break;
+			case "PartUnlockTypeIndex":
+				fieldsMask |= 4;
+				if (!checkToken(jsonReader, JsonToken.NUMBER, "number")) break;
+				String indexStr = jsonReader.nextString();
+				try {
+					partUnlockTypeIndexes.add(Integer.parseInt(indexStr));
+					partUnlockTypeIndexPaths.add(path);
+				} catch (NumberFormatException e) {
+					errorsList.add(path + ": " + indexStr + " is not an integer number");
+				}
+				break;
+			case "TheFFArray":
+				fieldsMask |= 8;
+				readHexValue(jsonReader, 12); break;
+			case "PartsAmountId":
+				fieldsMask |= 16;
+				readHexValue(jsonReader, 4); break;
+			case "DifficultyId":
+				fieldsMask |= 32;
+				readHexValue(jsonReader, 4); break;
+			case "CarName":
+				jsonReader.skipValue(); break;
+			default:
+				errorsList.add(path + ": unknown field");
+				jsonReader.skipValue(); break;
+			}
+		}
+		jsonReader.endObject();
+		for (int i = 0; i < carFieldNames.length; i++) {
+			if ((fieldsMask & (1 << i)) == 0) {
+				errorsList.add(carPath + ": " + carFieldNames[i] + " is missing");
+			}
+		}
+	}
+
+	// Hex string of the exact size in bytes, or null if it's wrong
+	private String readHexValue(JsonReader jsonReader, int size) throws IOException {
+		String path = jsonReader.getPath();
+		if (!checkToken(jsonReader, JsonToken.STRING, "hex string")) return null;
+		String value = jsonReader.nextString();
+		if (value.length() != size * 2) {
+			errorsList.add(path + ": \"" + value + "\" must have " + size * 2 + " hex digits (" + size + " bytes)");
+			return null;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (Character.digit(value.charAt(i), 16) == -1) {
+				errorsList.add(path + ": \"" + value + "\" is not a hex value");
+				return null;
+			}
+		}
+		return value;
+	}
+
+	// Hex string of the exact size or the known name, hex string of the ID is returned (null if it's wrong)
+	private String readIdValue(JsonReader jsonReader, int size, ToIntFunction<String> idResolver) throws IOException {
+		String path = jsonReader.getPath();
+		if (!checkToken(jsonReader, JsonToken.STRING, "hex string or name")) return null;
+		String value = jsonReader.nextString();
+		if (EventCarListNames.isHexString(value, size)) return value;
+		try {
+			return EventCarListEditor.intToHexString(idResolver.applyAsInt(value), size);
+		} catch (IllegalArgumentException e) {
+			errorsList.add(path + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	// Wrong value is skipped, so the rest of the file is still checked
+	private boolean checkToken(JsonReader jsonReader, JsonToken expectedToken, String expectedName) throws IOException {
+		JsonToken token = jsonReader.peek();
+		if (token == expectedToken) return true;
+		errorsList.add(jsonReader.getPath() + ": " + expectedName + " is expected, but found " + token);
+		jsonReader.skipValue();
+		return false;
+	}
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+
+// Keeps the JSON events and their encoded bytes in memory, and repacks the .dat file on each JSON save.
+// Events are matched by EventId, only changed events are encoded again, others are just moved with their
+// offsets shifted. JSON is validated as on repack, the last good .dat file is kept if it has errors
+public class EventCarListWatcher {
+
+	private static final int saveDelayMs = 100; // Editors could write the file in several steps
+
+	private final EventCarListEditor eventCarListEd;
+	private final Path jsonFile;
+	private final Path outputFile;
+
+	private List<EventCarListEditor.EventEntryObject> eventsList = new ArrayList<>();
+	private List<ByteBuffer> eventBytesList = new ArrayList<>();
+	private List<Integer> eventPosList = new ArrayList<>();
+
+	public EventCarListWatcher(EventCarListEditor eventCarListEd, String jsonPath, String outputName) {
+		this.eventCarListEd = eventCarListEd;
+		this.jsonFile = Paths.get(jsonPath + ".json").toAbsolutePath();
+		this.outputFile = Paths.get(outputName);
+	}
+
+	public void watchJsonFile() throws IOException, InterruptedException {
+		repackChangedEvents();
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			jsonFile.getParent().register(watchService,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+			System.out.println("### Watching " + jsonFile + ", press Ctrl+C to stop.");
+			while (true) {
+				WatchKey watchKey = watchService.take();
+				Thread.sleep(saveDelayMs);
+				boolean isJsonChanged = false;
+				for (WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+					if (jsonFile.getFileName().equals(watchEvent.context())) {
+						isJsonChanged = true;
+					}
+				}
+				watchKey.reset();
+				if (!isJsonChanged) continue;
+				try {
+					repackChangedEvents();
+				} catch (IOException | RuntimeException e) { // Broken JSON, wait for the next save
+					System.out.println("### Repack failed: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	public void repackChangedEvents() throws IOException {
+		long startTime = System.nanoTime();
+		EventCarListEditor.DatLayoutObject datLayout = eventCarListEd.readJsonLayout(jsonFile);
+		List<EventCarListEditor.EventEntryObject> newEventsList = new ArrayList<>();
+		try (JsonReader jsonReader = eventCarListEd.createJsonReader(jsonFile)) {
+			jsonReader.beginArray();
+			while (jsonReader.hasNext()) {
+				newEventsList.add(EventCarListEditor.eventJsonAdapter.read(jsonReader));
+			}
+			jsonReader.endArray();
+		}
+
+		if (!eventCarListEd.getEventsLayout(newEventsList).isSameLayout(datLayout)) {
+			throw new IOException("JSON file has been changed during the repack");
+		}
+
+		// Old events by EventId, events with the same EventId are matched in their order
+		Map<Integer, ArrayDeque<Integer>> oldIndexesMap = new HashMap<>();
+		for (int i = 0; i < eventsList.size(); i++) {
+			oldIndexesMap.computeIfAbsent(eventsList.get(i).getEventId(), eventId -> new ArrayDeque<>()).add(i);
+		}
+		List<ByteBuffer> newEventBytesList = new ArrayList<>(newEventsList.size());
+		List<Integer> newEventPosList = new ArrayList<>(newEventsList.size());
+		int changedCount = 0;
+		int eventPos = datLayout.getEventsStart();
+		for (int i = 0; i < newEventsList.size(); i++) {
+			EventCarListEditor.EventEntryObject eventObj = newEventsList.get(i);
+			ArrayDeque<Integer> oldIndexes = oldIndexesMap.get(eventObj.getEventId());
+			int oldIndex = oldIndexes != null && !oldIndexes.isEmpty() ? oldIndexes.poll() : -1;
+			ByteBuffer eventBuffer;
+			if (oldIndex != -1 && eventsList.get(oldIndex).equals(eventObj)) {
+				eventBuffer = eventBytesList.get(oldIndex);
+				int shift = eventPos - eventPosList.get(oldIndex);
+				if (shift != 0) { // Cached bytes stay as they are until the write is done, it could fail
+					eventBuffer = ByteBuffer.wrap(eventBuffer.array().clone()).order(ByteOrder.LITTLE_ENDIAN);
+					EventCarListEditor.shiftEventOffsets(eventBuffer, eventObj.getCarEntriesList().size(), shift);
+				}
+			} else {
+				eventBuffer = ByteBuffer.allocate(datLayout.getEventSize(i)).order(ByteOrder.LITTLE_ENDIAN);
+				eventCarListEd.writeEventBytes(eventBuffer, eventObj, eventPos);
+				changedCount++;
+			}
+			newEventBytesList.add(eventBuffer);
+			newEventPosList.add(eventPos);
+			eventPos += datLayout.getEventSize(i);
+		}
+
+		ByteBuffer datBuffer = ByteBuffer.allocate(datLayout.getFileSize()).order(ByteOrder.LITTLE_ENDIAN);
+		eventCarListEd.writeDatHeaderBytes(datBuffer, datLayout);
+		for (ByteBuffer eventBuffer : newEventBytesList) {
+			datBuffer.put(eventBuffer.array(), 0, eventBuffer.capacity());
+		}
+		eventCarListEd.writeBottomIndexBytes(datBuffer, datLayout);
+		datBuffer.flip();
+		eventCarListEd.writeFileAtomically(outputFile, datBuffer);
+
+		eventsList = newEventsList;
+		eventBytesList = newEventBytesList;
+		eventPosList = newEventPosList;
+		System.out.println("### .dat-file has been repacked, " + changedCount + " of " + newEventsList.size()
+				+ " events changed, " + (System.nanoTime() - startTime) / 1000000 + " ms.");
+	}
+}
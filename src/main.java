@@ -1,19 +1,268 @@
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class main {
 
 	private static String help = "NFS:MW (2012) Modding Tools by Hypercycle, v1"
 			+ "\nProbably you are entered wrond command, please refer to the Readme file.";
-	
+
+	// Options which go with a value, like "-format bin"
+	private static final List<String> valueOptions = Arrays.asList("-format", "-list", "-stats-json", "-cache", "-cache-size", 
+			"-event-names", "-car-names");
+
 	public static void main(String[] args) throws IOException {
 		EventCarListEditor eventCarListEd = new EventCarListEditor();
-		switch(args[0]) {
+		List<String> params = getParams(args);
+		boolean isBinary = getOption(args, "-format", "json").contentEquals("bin");
+		eventCarListEd.setVerbose(hasOption(args, "-verbose"));
+		eventCarListEd.setParallel(hasOption(args, "-parallel"));
+		eventCarListEd.setNamesMode(hasOption(args, "-names-only") ? EventCarListNames.NamesMode.ONLY 
+				: hasOption(args, "-names") ? EventCarListNames.NamesMode.WITH_HEX : EventCarListNames.NamesMode.NONE);
+		if (hasOption(args, "-event-names")) {
+			EventCarListNames.getNames().getEventNames().addNamesFile(getOption(args, "-event-names", null));
+		}
+		if (hasOption(args, "-car-names")) {
+			EventCarListNames.getNames().getCarNames().addNamesFile(getOption(args, "-car-names", null));
+		}
+		// Allocation counter loads the management beans, which take a while on the start, so it's read only for stats
+		boolean hasStats = hasOption(args, "-stats") || hasOption(args, "-stats-json");
+		long startAllocatedBytes = hasStats ? EventCarListStats.getThreadAllocatedBytes() : -1;
+		EventCarListCache cache = null;
+		// Results with the names depend on the name lists too, so they are not cached
+		boolean hasNames = hasOption(args, "-names") || hasOption(args, "-names-only") 
+				|| hasOption(args, "-event-names") || hasOption(args, "-car-names");
+		if (hasOption(args, "-cache") && !hasNames) {
+			long cacheSizeLimit = hasOption(args, "-cache-size")
+					? Long.parseLong(getOption(args, "-cache-size", null)) * 1024 * 1024 : EventCarListCache.defaultSizeLimit;
+			cache = new EventCarListCache(Paths.get(getOption(args, "-cache", null)), cacheSizeLimit);
+		}
+		switch(params.get(0)) {
 		case "unpack":
-			eventCarListEd.unpackDatFile(args[1], args[2]); break;
+			runUnpack(eventCarListEd, cache, params.get(1), params.get(2), isBinary, hasOption(args, "-compact")); break;
 		case "repack":
-			eventCarListEd.writeDatFileOutput(args[1], args[2]); break;
+			runRepack(eventCarListEd, cache, params.get(1), params.get(2), isBinary); break;
+		case "patch":
+			String patchOutputName = params.size() > 3 ? params.get(3) : params.get(1);
+			eventCarListEd.patchDatFile(params.get(1), params.get(2), patchOutputName); break;
+		case "extract":
+			List<String> eventIdsList = params.subList(3, params.size());
+			if (hasOption(args, "-list")) {
+				eventIdsList = EventCarListEditor.readEventIdsList(getOption(args, "-list", null));
+			}
+			eventCarListEd.extractEvents(params.get(1), params.get(2), eventIdsList, hasOption(args, "-compact")); break;
+		case "verify":
+			if (!eventCarListEd.verifyDatFile(params.get(1))) {
+				printStats(eventCarListEd.getStats(), args, startAllocatedBytes);
+				System.exit(1);
+			}
+			break;
+		case "watch":
+			try {
+				new EventCarListWatcher(eventCarListEd, params.get(1), params.get(2)).watchJsonFile();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			break;
+		case "merge":
+			new EventCarListMerger(eventCarListEd).mergeFiles(params.get(1), params.subList(3, params.size()), 
+					params.get(2), hasOption(args, "-compact"));
+			break;
+		case "transform":
+			new EventCarListTransformer(eventCarListEd).transformFile(params.get(1), params.get(2), params.get(3), 
+					hasOption(args, "-compact"));
+			break;
+		case "serve":
+			try {
+				new EventCarListServer(eventCarListEd).serveFiles(Integer.parseInt(params.get(1)), 
+						params.subList(2, params.size()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			break;
+		case "generate":
+			new EventCarListGenerator(eventCarListEd).generateFile(params.get(1), Integer.parseInt(params.get(2)), 
+					Integer.parseInt(params.get(3)), Integer.parseInt(params.get(4))); break;
+		case "scale-test":
+			int maxEventsCount = params.size() > 2 ? Integer.parseInt(params.get(2)) : 1 << 20;
+			new EventCarListGenerator(eventCarListEd).runScaleTest(params.get(1), maxEventsCount); break;
+		case "diff":
+			String diffOutputName = params.size() > 3 ? params.get(3) : null;
+			if (!new EventCarListDiff(eventCarListEd).diffFiles(params.get(1), params.get(2), diffOutputName)) {
+				printStats(eventCarListEd.getStats(), args, startAllocatedBytes);
+				System.exit(1);
+			}
+			break;
+		case "validate":
+			if (!eventCarListEd.validateJsonFile(params.get(1))) {
+				printStats(eventCarListEd.getStats(), args, startAllocatedBytes);
+				System.exit(1);
+			}
+			break;
+		case "batch":
+			int threads = params.size() > 4 ? Integer.parseInt(params.get(4)) : Runtime.getRuntime().availableProcessors();
+			runBatch(eventCarListEd, cache, params.get(1), params.get(2), params.get(3), threads, isBinary, 
+					hasStats); break;
 		default:
 			System.out.println(help); break;
 		}
+		printStats(eventCarListEd.getStats(), args, startAllocatedBytes);
+	}
+	
+	private static void runUnpack(EventCarListEditor eventCarListEd, EventCarListCache cache, String inputPath, 
+			String outputName, boolean isBinary, boolean isCompactJson) throws IOException {
+		EventCarListCache.CachedTask unpackTask = () -> {
+			if (isBinary) {
+				eventCarListEd.unpackDatFileBinary(inputPath, outputName);
+			} else {
+				eventCarListEd.unpackDatFile(inputPath, outputName, isCompactJson);
+			}
+		};
+		if (cache == null) {
+			unpackTask.run();
+			return;
+		}
+		Path outputFile = Paths.get(outputName + (isBinary ? ".bin" : ".json"));
+		cache.runCached(Paths.get(inputPath), "unpack " + (isBinary ? "bin" : isCompactJson ? "compact" : "json"), 
+				outputFile, unpackTask);
+	}
+	
+	// Repack takes the JSON name without extension. Repack into the bundle depends on the old bundle, so it's not cached
+	private static void runRepack(EventCarListEditor eventCarListEd, EventCarListCache cache, String inputName, 
+			String outputName, boolean isBinary) throws IOException {
+		EventCarListCache.CachedTask repackTask = () -> {
+			if (isBinary) {
+				eventCarListEd.writeDatFileOutputBinary(inputName, outputName);
+			} else {
+				eventCarListEd.writeDatFileOutput(inputName, outputName);
+			}
+		};
+		if (cache == null || EventCarListBundle.isBundleFile(outputName)) {
+			repackTask.run();
+			return;
+		}
+		Path inputFile = Paths.get(inputName + (isBinary ? ".bin" : ".json"));
+		cache.runCached(inputFile, "repack " + (isBinary ? "bin" : "json"), Paths.get(outputName), repackTask);
+	}
+	
+	// Only with -stats or -stats-json <file> options
+	private static void printStats(EventCarListStats stats, String[] args, long startAllocatedBytes) throws IOException {
+		if (!hasOption(args, "-stats") && !hasOption(args, "-stats-json")) return;
+		stats.addThreadAllocatedBytes(startAllocatedBytes);
+		if (hasOption(args, "-stats")) {
+			stats.printStats();
+		}
+		if (hasOption(args, "-stats-json")) {
+			stats.writeStatsJson(getOption(args, "-stats-json", null));
+		}
+	}
+
+	// Command arguments without options
+	private static List<String> getParams(String[] args) {
+		List<String> params = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("-")) {
+				params.add(args[i]);
+			} else if (valueOptions.contains(args[i])) {
+				i++; // Skip option value
+			}
+		}
+		if (params.isEmpty()) {
+			params.add("help");
+		}
+		return params;
+	}
+
+	private static boolean hasOption(String[] args, String option) {
+		return Arrays.asList(args).contains(option);
+	}
+
+	private static String getOption(String[] args, String option, String defaultValue) {
+		int optionIndex = Arrays.asList(args).indexOf(option);
+		return optionIndex != -1 && optionIndex + 1 < args.length ? args[optionIndex + 1] : defaultValue;
+	}
+
+	// Unpack or repack many files in one JVM, input can be a folder or a file mask (like mods/*.dat)
+	private static void runBatch(EventCarListEditor eventCarListEd, EventCarListCache cache, String mode, String input,
+			String outputFolder, int threads, boolean isBinary, boolean hasStats) throws IOException {
+		boolean isUnpack = mode.contentEquals("unpack");
+		String textExt = isBinary ? ".bin" : ".json";
+		String inputExt = isUnpack ? ".dat" : textExt;
+		List<Path> inputFiles = findBatchFiles(input, inputExt);
+		System.out.println("### Batch " + mode + ": " + inputFiles.size() + " files found.");
+		if (inputFiles.isEmpty()) return;
+		Files.createDirectories(Paths.get(outputFolder));
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, inputFiles.size())));
+		List<Future<Void>> tasks = new ArrayList<>();
+		for (Path inputFile : inputFiles) {
+			String fileName = inputFile.getFileName().toString();
+			String baseName = fileName.substring(0, fileName.length() - inputExt.length());
+			String outputName = Paths.get(outputFolder, baseName).toString();
+			Callable<Void> task = () -> {
+				long startAllocatedBytes = hasStats ? EventCarListStats.getThreadAllocatedBytes() : -1;
+				String inputPath = inputFile.toString();
+				if (isUnpack) {
+					runUnpack(eventCarListEd, cache, inputPath, outputName, isBinary, false);
+				} else {
+					String textPath = inputPath.substring(0, inputPath.length() - inputExt.length());
+					runRepack(eventCarListEd, cache, textPath, outputName + ".dat", isBinary);
+				}
+				if (hasStats) {
+					eventCarListEd.getStats().addThreadAllocatedBytes(startAllocatedBytes);
+				}
+				return null;
+			};
+			tasks.add(executor.submit(task));
+		}
+		executor.shutdown();
+
+		int failedCount = 0;
+		for (int i = 0; i < tasks.size(); i++) {
+			try {
+				tasks.get(i).get();
+			} catch (ExecutionException e) {
+				failedCount++;
+				System.out.println("### Failed: " + inputFiles.get(i) + " (" + e.getCause() + ")");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+				return;
+			}
+		}
+		System.out.println("### Batch " + mode + " is done, " + (inputFiles.size() - failedCount) + " of "
+				+ inputFiles.size() + " files processed.");
+	}
+
+	private static List<Path> findBatchFiles(String input, String inputExt) throws IOException {
+		Path inputPath = Paths.get(input);
+		String glob = "*" + inputExt;
+		if (!Files.isDirectory(inputPath)) { // Last part of the path is a file mask
+			glob = inputPath.getFileName().toString();
+			inputPath = inputPath.getParent() != null ? inputPath.getParent() : Paths.get(".");
+		}
+		PathMatcher matcher = inputPath.getFileSystem().getPathMatcher("glob:" + glob);
+		List<Path> inputFiles = new ArrayList<>();
+		try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(inputPath)) {
+			for (Path file : dirStream) {
+				if (Files.isRegularFile(file) && matcher.matches(file.getFileName())
+						&& file.getFileName().toString().endsWith(inputExt)) {
+					inputFiles.add(file);
+				}
+			}
+		}
+		inputFiles.sort(null);
+		return inputFiles;
 	}
 }